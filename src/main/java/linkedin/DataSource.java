@@ -0,0 +1,6 @@
+package linkedin;
+
+/** The persistent (slow) layer behind RetainBestCache. */
+public interface DataSource<K, V extends Rankable> {
+    V get(K key);
+}
@@ -1,95 +1,321 @@
-/*
-package lru;
+package linkedin;
 
-import java.security.Key;
-import java.util.*;
-
-import org.apache.commons.lang3.tuple.*;;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Cache over a slow DataSource that, when full, evicts the value with the lowest rank
+ * (ties broken arbitrarily) instead of the least recently used one.
+ *
+ * - Striped: keys hash to power-of-two segments, each with its own lock, map and heap.
+ *   Each segment holds capacity / segments entries and evicts its own lowest-ranked entry.
+ * - Each segment keeps its entries in an indexed 4-ary min-heap. Every entry knows its
+ *   heap slot, so removing a key or changing its rank (rerank) is O(log n), and removed
+ *   keys leave nothing stale behind. A 4-ary heap is shallower than a binary one and
+ *   sifts down over adjacent slots.
+ * - A rank is read once when the value enters the cache. Call rerank(key) after the
+ *   value's internal state changes its rank.
+ * - The DataSource is called outside any lock.
+ */
 public class RetainBestCache<K, V extends Rankable> {
-    // Add any fields you need here
+    private final DataSource<K, V> ds;
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
 
-    */
-/**
-        * Constructor with a data source (assumed to be slow) and a cache size
-        * @param ds the persistent layer of the the cache
-        * @param capacity the number of entries that the cache can hold
-        *//*
+    /**
+     * Constructor with a data source (assumed to be slow) and a cache size
+     * @param ds the persistent layer of the the cache
+     * @param capacity the number of entries that the cache can hold
+     */
+    public RetainBestCache(DataSource<K, V> ds, int capacity) {
+        this(ds, capacity, 16);
+    }
 
+    public RetainBestCache(DataSource<K, V> ds, int capacity, int segmentsCount) {
+        if (capacity <= 0 || segmentsCount <= 0)
+            throw new IllegalArgumentException("capacity and segmentCount must be > 0");
+        this.ds = Objects.requireNonNull(ds);
+        int s = 1;
+        while (s < segmentsCount && s < capacity) s <<= 1;
+        this.segmentMask = s - 1;
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[s];
+        this.segments = segments;
+        int perSegment = (capacity + s - 1) / s;
+        for (int i = 0; i < s; i++) segments[i] = new Segment<>(perSegment);
+    }
 
-    HashMap<K,V> cache ;
+    private Segment<K, V> segmentFor(Object key) {
+        // multiplicative spread: ranks often correlate with low key bits
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
 
-    int capacity;
-    PriorityQueue<Pair<Long,K>> pq;
-    DataSource<K,V> ds;
-    int size;
-    public RetainBestCache(DataSource<K, V> ds, int capacity) {
-        this.ds=ds;
-        this.capacity=capacity;
-        this.pq=new PriorityQueue<>(Comparator.comparing(Pair::getKey));
-        this.size=0;
+    /**
+     * Gets some data. If possible, retrieves it from cache to be fast. If the data is not cached,
+     * retrieves it from the data source and, if possible, cache it. If the cache is full, attempt
+     * to cache the returned data, evicting the V with lowest rank among the ones that it has available.
+     * @param key the key of the cache entry being queried
+     * @return the Rankable value of the cache entry
+     */
+    public V get(K key) {
+        Objects.requireNonNull(key);
+        Segment<K, V> seg = segmentFor(key);
+        V value = seg.get(key);
+        if (value != null) return value;
+        value = ds.get(key);
+        if (value != null) seg.put(key, value);
+        return value;
+    }
 
+    /** Cache value under key, evicting the lowest-ranked entry if the segment is full. */
+    public void put(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        segmentFor(key).put(key, value);
     }
 
-    */
-/**
-        * Gets some data. If possible, retrieves it from cache to be fast. If the data is not cached,
-        * retrieves it from the data source and, if possible, cache it. If the cache is full, attempt
-        to cache the returned data,
-        * evicting the V with lowest rank among the ones that it has available
-        * If there is a tie, the cache may choose any V with lowest rank to evict.
-        * @param key the key of the cache entry being queried
-        * @return the Rankable value of the cache entry
-        *//*
+    public V remove(K key) {
+        Objects.requireNonNull(key);
+        return segmentFor(key).remove(key);
+    }
 
-    public V get(K key) {
-        // Implementation here
-        if(!cache.containsKey(key)){
-            V value= ds.get(key);
-            return put(key,value);
+    /** Re-read key's rank after its value changed; returns false if key is not cached. */
+    public boolean rerank(K key) {
+        Objects.requireNonNull(key);
+        return segmentFor(key).rerank(key);
+    }
 
-        }
-        else
-            return cache.get(key);
+    public int size() {
+        int total = 0;
+        for (Segment<K, V> seg : segments) total += seg.size();
+        return total;
     }
 
-    public V put(K key,V value){
+    // -------- Segment: map + indexed 4-ary min-heap on rank --------
+    private static final class Segment<K, V extends Rankable> {
+        private static final int ARITY = 4;
 
-        cache.put(key,value);
-        size++;
-        pq.offer(new Pair<>(value.getRank(),key));
-        if(size>capacity){
-            Pair<Long,K> toBeRemoved= pq.poll();
-            cache.remove(toBeRemoved.getKey());
-            size--;
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<K, Entry<K, V>> map;
+        private Entry<K, V>[] heap;
+        private int size;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.map = new HashMap<>(capacity * 2);
+            @SuppressWarnings("unchecked")
+            Entry<K, V>[] heap = (Entry<K, V>[]) new Entry<?, ?>[Math.min(capacity + 1, 16)];
+            this.heap = heap;
+        }
+
+        V get(K key) {
+            lock.lock();
+            try {
+                Entry<K, V> e = map.get(key);
+                return e == null ? null : e.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, V value) {
+            long rank = value.getRank();
+            lock.lock();
+            try {
+                Entry<K, V> e = map.get(key);
+                if (e != null) {
+                    e.value = value;
+                    changeRank(e, rank);
+                    return;
+                }
+                e = new Entry<>(key, value, rank);
+                map.put(key, e);
+                offer(e);
+                if (size > capacity) {
+                    // may be the entry we just added, if it ranks lowest
+                    Entry<K, V> lowest = heap[0];
+                    removeAt(0);
+                    map.remove(lowest.key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V remove(K key) {
+            lock.lock();
+            try {
+                Entry<K, V> e = map.remove(key);
+                if (e == null) return null;
+                removeAt(e.index);
+                return e.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean rerank(K key) {
+            lock.lock();
+            try {
+                Entry<K, V> e = map.get(key);
+                if (e == null) return false;
+                changeRank(e, e.value.getRank());
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
         }
-        return value;
 
+        // --- heap ops (caller holds lock) ---
+        private void offer(Entry<K, V> e) {
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            heap[size] = e;
+            e.index = size;
+            size++;
+            siftUp(e.index);
+        }
+
+        private void removeAt(int i) {
+            Entry<K, V> removed = heap[i];
+            int last = --size;
+            if (i != last) {
+                Entry<K, V> moved = heap[last];
+                set(i, moved);
+                heap[last] = null;
+                // the filler can belong above or below slot i
+                if (!siftUp(i)) siftDown(i);
+            } else {
+                heap[last] = null;
+            }
+            removed.index = -1;
+        }
+
+        private void changeRank(Entry<K, V> e, long rank) {
+            long old = e.rank;
+            e.rank = rank;
+            if (rank < old) siftUp(e.index);
+            else if (rank > old) siftDown(e.index);
+        }
+
+        /** Returns true if the entry at i moved. */
+        private boolean siftUp(int i) {
+            Entry<K, V> e = heap[i];
+            int start = i;
+            while (i > 0) {
+                int parent = (i - 1) / ARITY;
+                if (heap[parent].rank <= e.rank) break;
+                set(i, heap[parent]);
+                i = parent;
+            }
+            set(i, e);
+            return i != start;
+        }
+
+        private void siftDown(int i) {
+            Entry<K, V> e = heap[i];
+            while (true) {
+                int first = i * ARITY + 1;
+                if (first >= size) break;
+                int min = first;
+                int end = Math.min(first + ARITY, size);
+                for (int c = first + 1; c < end; c++) {
+                    if (heap[c].rank < heap[min].rank) min = c;
+                }
+                if (heap[min].rank >= e.rank) break;
+                set(i, heap[min]);
+                i = min;
+            }
+            set(i, e);
+        }
+
+        private void set(int i, Entry<K, V> e) {
+            heap[i] = e;
+            e.index = i;
+        }
     }
 
-}
+    private static final class Entry<K, V> {
+        final K key;
+        V value;
+        long rank;
+        int index; // slot in the segment heap, -1 once removed
 
-*/
-/*
- * For reference, here are the Rankable and DataSource interfaces.
- * You do not need to implement them, and should not make assumptions
- * about their implementations.
- *//*
+        Entry(K key, V value, long rank) {
+            this.key = key;
+            this.value = value;
+            this.rank = rank;
+        }
+    }
 
+    // ------------------- DEMO -------------------
+    static final class Report implements Rankable {
+        final String name;
+        volatile long costToRecompute;
 
-public interface Rankable {
-    */
-/**
-        * Returns the Rank of this object, using some algorithm and potentially
-        * the internal state of the Rankable.
-        *//*
+        Report(String name, long costToRecompute) {
+            this.name = name;
+            this.costToRecompute = costToRecompute;
+        }
 
-    long getRank();
-}
+        @Override
+        public long getRank() {
+            return costToRecompute;
+        }
 
-public interface DataSource<K, V extends Rankable> {
-    V get (K key);
-}
+        @Override
+        public String toString() {
+            return name + "(" + costToRecompute + ")";
+        }
+    }
 
+    public static void main(String[] args) throws InterruptedException {
+        AtomicInteger sourceCalls = new AtomicInteger();
+        DataSource<Integer, Report> warehouse = key -> {
+            sourceCalls.incrementAndGet();
+            // every 10th report is expensive to rebuild
+            return new Report("report-" + key, key % 10 == 0 ? 1_000 + key : key % 10);
+        };
+        RetainBestCache<Integer, Report> cache = new RetainBestCache<>(warehouse, 100, 4);
 
-*/
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5_000; i++) cache.get(i % 1_000);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        int expensiveKept = 0;
+        for (int k = 0; k < 1_000; k += 10) {
+            if (cache.segmentFor(k).get(k) != null) expensiveKept++;
+        }
+        System.out.println("size = " + cache.size() + ", expensive reports still cached = "
+                + expensiveKept + "/100, source calls = " + sourceCalls.get());
+
+        // an entry's rank changed: rerank lets it be evicted next
+        Report r = cache.get(990);
+        r.costToRecompute = 0;
+        cache.rerank(990);
+        int fresh = 5_000;
+        while (cache.segmentFor(fresh) != cache.segmentFor(990)) fresh++;
+        cache.put(fresh, new Report("fresh", 5_000));
+        System.out.println("990 after rerank to 0 and one more insert: "
+                + (cache.segmentFor(990).get(990) == null ? "evicted" : "kept"));
+    }
+}
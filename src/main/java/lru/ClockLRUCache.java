@@ -0,0 +1,109 @@
+package lru;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import threading.lrucache.CacheStats;
+import threading.lrucache.EvictionCause;
+import threading.lrucache.Instrumented;
+import threading.lrucache.StatsCounter;
+
+/**
+ * CLOCK approximation of LRUCache with the same API, for when hits must not serialize.
+ *
+ * - get(): a ConcurrentHashMap lookup plus setting the entry's referenced bit. No lock, and
+ *   no write at all if the bit is already set.
+ * - put() of a new key: inserts into the map without a lock, then takes the eviction lock
+ *   only to claim a slot in the ring. The hand sweeps forward, clearing referenced bits,
+ *   until it finds an empty slot or an unreferenced entry to evict. Amortized O(1).
+ *
+ * An entry survives as long as it is referenced again before the hand comes back around, so
+ * eviction is close to LRU without any list relinking. While puts are in flight the map can
+ * hold a few more entries than capacity.
+ */
+public class ClockLRUCache<K, V> implements Instrumented {
+    private final int capacity;
+    private final ConcurrentHashMap<K, Entry<K, V>> map;
+    private final Entry<K, V>[] ring; // guarded by evictionLock
+    private int hand;                  // guarded by evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder contention = new LongAdder();
+    private final StatsCounter stats = new StatsCounter();
+
+    public ClockLRUCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+        @SuppressWarnings("unchecked")
+        Entry<K, V>[] ring = (Entry<K, V>[]) new Entry<?, ?>[capacity];
+        this.ring = ring;
+    }
+
+    public V get(K key) {
+        Entry<K, V> e = map.get(key);
+        if (e == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
+        if (!e.referenced) e.referenced = true;
+        return e.value;
+    }
+
+    public void put(K key, V value) {
+        Objects.requireNonNull(key);
+        Entry<K, V> e = map.get(key);
+        if (e == null) {
+            Entry<K, V> fresh = new Entry<>(key, value);
+            e = map.putIfAbsent(key, fresh);
+            if (e == null) {
+                claimSlot(fresh);
+                return;
+            }
+        }
+        e.value = value;
+        e.referenced = true;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot(map.size(), capacity, contention.sum());
+    }
+
+    private void claimSlot(Entry<K, V> entry) {
+        StatsCounter.lock(evictionLock, contention);
+        try {
+            while (true) {
+                Entry<K, V> current = ring[hand];
+                if (current == null) break;
+                if (!current.referenced) {
+                    map.remove(current.key, current);
+                    stats.recordEviction(EvictionCause.SIZE);
+                    break;
+                }
+                current.referenced = false;
+                hand = hand + 1 == ring.length ? 0 : hand + 1;
+            }
+            ring[hand] = entry;
+            hand = hand + 1 == ring.length ? 0 : hand + 1;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry<K, V> {
+        final K key;
+        volatile V value;
+        volatile boolean referenced;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -1,55 +1,114 @@
 package lru;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import threading.lrucache.CacheStats;
+import threading.lrucache.EvictionCause;
+import threading.lrucache.Instrumented;
+import threading.lrucache.StatsCounter;
 
-public class LRUCache<K, V> {
+/**
+ * Thread-safe LRU cache with O(1) get and put.
+ *
+ * Each map value is a node in an intrusive doubly linked list, so a hit unlinks and relinks
+ * its own node rather than searching the list for the key. Map and list are guarded by one
+ * lock. ClockLRUCache has the same API and lets hits run without any lock.
+ */
+public class LRUCache<K, V> implements Instrumented {
     private final int capacity;
-    private final ConcurrentHashMap<K, V> cache;
-    private final ConcurrentLinkedDeque<K> accessOrder;
+    private final HashMap<K, Node<K, V>> cache;
+    // sentinels: head.next is the most recently used entry, tail.prev the least
+    private final Node<K, V> head = new Node<>(null, null);
+    private final Node<K, V> tail = new Node<>(null, null);
     private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder contention = new LongAdder();
+    private final StatsCounter stats = new StatsCounter();
 
     public LRUCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
         this.capacity = capacity;
-        this.cache = new ConcurrentHashMap<>();
-        this.accessOrder = new ConcurrentLinkedDeque<>();
+        this.cache = new HashMap<>();
+        head.next = tail;
+        tail.prev = head;
     }
 
     public V get(K key) {
-        lock.lock();
+        StatsCounter.lock(lock, contention);
         try {
-            V value = cache.get(key);
-            if (value != null) {
-                // Move key to the front (most recently used)
-                accessOrder.remove(key);
-                accessOrder.addFirst(key);
+            Node<K, V> node = cache.get(key);
+            if (node == null) {
+                stats.recordMiss();
+                return null;
             }
-            return value;
+            stats.recordHit();
+            // Move key to the front (most recently used)
+            unlink(node);
+            addFirst(node);
+            return node.value;
         } finally {
             lock.unlock();
         }
     }
 
     public void put(K key, V value) {
-        lock.lock();
+        StatsCounter.lock(lock, contention);
         try {
-            if (cache.containsKey(key)) {
-                cache.put(key, value); // Update the value
-                accessOrder.remove(key);
-                accessOrder.addFirst(key); // Update access order
-            } else {
-                if (cache.size() >= capacity) {
-                    K lruKey = accessOrder.pollLast(); // Remove least recently used
-                    if (lruKey != null) {
-                        cache.remove(lruKey);
-                    }
-                }
-                cache.put(key, value); // Add new key-value pair
-                accessOrder.addFirst(key); // Mark as most recently used
+            Node<K, V> node = cache.get(key);
+            if (node != null) {
+                node.value = value; // Update the value
+                unlink(node);
+                addFirst(node); // Update access order
+                return;
             }
+            if (cache.size() >= capacity) {
+                Node<K, V> lru = tail.prev; // Remove least recently used
+                unlink(lru);
+                cache.remove(lru.key);
+                stats.recordEviction(EvictionCause.SIZE);
+            }
+            node = new Node<>(key, value);
+            cache.put(key, node); // Add new key-value pair
+            addFirst(node); // Mark as most recently used
         } finally {
             lock.unlock();
         }
     }
+
+    public int size() {
+        StatsCounter.lock(lock, contention);
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot(size(), capacity, contention.sum());
+    }
+
+    private void addFirst(Node<K, V> node) {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        Node<K, V> prev, next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
 }
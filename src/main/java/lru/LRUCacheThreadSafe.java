@@ -1,8 +1,18 @@
 package lru;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import threading.lrucache.CacheStats;
+import threading.lrucache.EvictionCause;
+import threading.lrucache.Instrumented;
+import threading.lrucache.SegmentStats;
+import threading.lrucache.StatsCounter;
 
 class Node {
     int key;
@@ -11,6 +21,7 @@ class Node {
     int priority;
     Node prev;
     Node next;
+    int heapIndex = -1;
 
     public Node(int key, int value, long expiryTime, int priority) {
         this.key = key;
@@ -20,120 +31,273 @@ class Node {
     }
 }
 
-public class LRUCacheThreadSafe {
-    private ConcurrentHashMap<Integer, Node> cache;
-    private Node head;
-    private Node tail;
-    private int capacity;
-    private final Lock lock = new ReentrantLock();
+/**
+ * Priority cache with expiry: when full, drop expired entries first, otherwise the least
+ * recently used entry of the lowest priority.
+ *
+ * Keys are split over segments, each with its own lock and an equal share of capacity, and
+ * each segment indexes its entries two ways:
+ * - one LRU list per priority level, kept in a TreeMap by priority, so the victim is the
+ *   tail of the first bucket: O(log P) for P distinct priorities;
+ * - a binary min-heap on expiryTime, so expired entries are popped in O(log n) each
+ *   instead of found by walking the whole list.
+ * Priority and recency are therefore exact within a segment and approximate across them.
+ */
+public class LRUCacheThreadSafe implements Instrumented {
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final int capacity;
+    private final StatsCounter stats = new StatsCounter();
 
     public LRUCacheThreadSafe(int capacity) {
-        this.cache = new ConcurrentHashMap<>();
-        this.head = new Node(0, 0, 0, 0);
-        this.tail = new Node(0, 0, 0, 0);
-        this.head.next = tail;
-        this.tail.prev = head;
+        this(capacity, 1);
+    }
+
+    /** segmentCount is rounded up to a power of two; each segment holds capacity / segments entries. */
+    public LRUCacheThreadSafe(int capacity, int segmentCount) {
+        if (capacity <= 0 || segmentCount <= 0)
+            throw new IllegalArgumentException("capacity and segmentCount must be > 0");
+        int n = 1;
+        while (n < segmentCount) n <<= 1;
+        if (capacity < n) throw new IllegalArgumentException("capacity must be >= segment count");
         this.capacity = capacity;
+        this.segments = new Segment[n];
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            // spread the remainder so the segments add up to capacity
+            segments[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0), stats);
+        }
+    }
+
+    private Segment segmentFor(int key) {
+        // multiplicative spread: sequential keys land in different segments
+        return segments.length == 1 ? segments[0] : segments[(key * 0x9E3779B9) >>> segmentShift];
     }
 
     public void put(int key, int value, long expiryTime, int priority) {
-        lock.lock();
-        try {
-            if (cache.containsKey(key)) {
-                // Update the existing node
+        segmentFor(key).put(key, value, expiryTime, priority);
+    }
+
+    public int get(int key) {
+        return segmentFor(key).get(key);
+    }
+
+    public int size() {
+        int total = 0;
+        for (Segment s : segments) total += s.size();
+        return total;
+    }
+
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> list = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            Segment s = segments[i];
+            list.add(new SegmentStats(i, s.size(), s.capacity, s.contention.sum()));
+        }
+        return stats.snapshot(list);
+    }
+
+    private static final class Segment {
+        private final int capacity;
+        private final HashMap<Integer, Node> cache = new HashMap<>();
+        // priority -> LRU list of that priority; the first entry is the lowest priority
+        private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+        private final ExpiryHeap expiries = new ExpiryHeap();
+        private final Lock lock = new ReentrantLock();
+        private final LongAdder contention = new LongAdder();
+        private final StatsCounter stats;
+
+        Segment(int capacity, StatsCounter stats) {
+            this.capacity = capacity;
+            this.stats = stats;
+        }
+
+        void put(int key, int value, long expiryTime, int priority) {
+            StatsCounter.lock(lock, contention);
+            try {
                 Node existingNode = cache.get(key);
-                existingNode.value = value;
-                existingNode.expiryTime = expiryTime;
-                existingNode.priority = priority;
-                // Move the node to the front (most recently used)
-                moveToHead(existingNode);
-            } else {
-                // Create a new node
-                Node newNode = new Node(key, value, expiryTime, priority);
-                // Add the new node to the cache and the front of the linked list
-                cache.put(key, newNode);
-                addToFront(newNode);
-                // Check if the cache size exceeds the capacity, trigger eviction logic
-                if (cache.size() > capacity) {
-                    evict();
+                if (existingNode != null) {
+                    // Update the existing node and make it the most recently used of its priority
+                    unlink(existingNode);
+                    existingNode.value = value;
+                    existingNode.priority = priority;
+                    existingNode.expiryTime = expiryTime;
+                    expiries.update(existingNode);
+                    bucketFor(priority).addFirst(existingNode);
+                } else {
+                    Node newNode = new Node(key, value, expiryTime, priority);
+                    cache.put(key, newNode);
+                    bucketFor(priority).addFirst(newNode);
+                    expiries.add(newNode);
+                    if (cache.size() > capacity) {
+                        evict();
+                    }
                 }
+            } finally {
+                lock.unlock();
             }
-        } finally {
-            lock.unlock();
         }
-    }
 
-    public int get(int key) {
-        lock.lock();
-        try {
-            if (cache.containsKey(key)) {
+        int get(int key) {
+            StatsCounter.lock(lock, contention);
+            try {
                 Node node = cache.get(key);
-                // Move the accessed node to the front
-                moveToHead(node);
+                if (node == null) {
+                    stats.recordMiss();
+                    return -1;
+                }
+                if (node.expiryTime <= System.currentTimeMillis()) {
+                    // expired: drop it instead of serving a stale value
+                    remove(node);
+                    stats.recordEviction(EvictionCause.EXPIRED);
+                    stats.recordMiss();
+                    return -1;
+                }
+                stats.recordHit();
+                Bucket bucket = buckets.get(node.priority);
+                bucket.unlink(node);
+                bucket.addFirst(node);
                 return node.value;
+            } finally {
+                lock.unlock();
             }
-            // If the key is not present in the cache, return -1
-            return -1;
-        } finally {
-            lock.unlock();
         }
-    }
 
-    private void moveToHead(Node node) {
-        // Remove the node from its current position
-        removeNode(node);
-        // Add the node to the front of the linked list
-        addToFront(node);
-    }
+        int size() {
+            lock.lock();
+            try {
+                return cache.size();
+            } finally {
+                lock.unlock();
+            }
+        }
 
-    private void addToFront(Node node) {
-        node.next = head.next;
-        head.next.prev = node;
-        head.next = node;
-        node.prev = head;
-    }
+        private void evict() {
+            // Remove expired items, soonest expiry first
+            long now = System.currentTimeMillis();
+            Node soonest;
+            while ((soonest = expiries.peek()) != null && soonest.expiryTime <= now) {
+                remove(soonest);
+                stats.recordEviction(EvictionCause.EXPIRED);
+            }
+            // If no items have expired, remove the least recently used of the lowest priority
+            if (cache.size() > capacity) {
+                remove(buckets.firstEntry().getValue().last());
+                stats.recordEviction(EvictionCause.SIZE);
+            }
+        }
+
+        private Bucket bucketFor(int priority) {
+            return buckets.computeIfAbsent(priority, p -> new Bucket());
+        }
 
-    private void removeNode(Node node) {
-        node.prev.next = node.next;
-        node.next.prev = node.prev;
+        private void remove(Node node) {
+            unlink(node);
+            expiries.remove(node);
+            cache.remove(node.key);
+        }
+
+        /** Take node out of its priority list, dropping the list once it is empty. */
+        private void unlink(Node node) {
+            Bucket bucket = buckets.get(node.priority);
+            bucket.unlink(node);
+            if (bucket.isEmpty()) buckets.remove(node.priority);
+        }
     }
 
-    private void evict() {
-        // Remove expired items
-        removeExpiredItems();
-        // If no items have expired, remove the least priority item
-        if (cache.size() > capacity) {
-            removeLeastPriorityItem();
+    /** Doubly linked LRU list of one priority level, most recent first. */
+    private static final class Bucket {
+        private final Node head = new Node(0, 0, 0, 0);
+        private final Node tail = new Node(0, 0, 0, 0);
+
+        Bucket() {
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        void addFirst(Node node) {
+            node.next = head.next;
+            head.next.prev = node;
+            head.next = node;
+            node.prev = head;
+        }
+
+        void unlink(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = node.next = null;
+        }
+
+        Node last() {
+            return tail.prev;
+        }
+
+        boolean isEmpty() {
+            return head.next == tail;
         }
     }
 
-    private void removeExpiredItems() {
-        long currentTime = System.currentTimeMillis();
-        Node current = tail.prev;
-        while (current != head) {
-            if (current.expiryTime <= currentTime) {
-                Node toRemove = current;
-                current = current.prev;
-                removeNode(toRemove);
-                cache.remove(toRemove.key);
-            } else {
-                // As the nodes are ordered by expiry time, we can stop checking further nodes.
-                break;
+    /** Binary min-heap on expiryTime; each node remembers its slot so it can be removed in O(log n). */
+    private static final class ExpiryHeap {
+        private Node[] heap = new Node[16];
+        private int size;
+
+        Node peek() {
+            return size == 0 ? null : heap[0];
+        }
+
+        void add(Node node) {
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            heap[size] = node;
+            node.heapIndex = size;
+            siftUp(size++);
+        }
+
+        void remove(Node node) {
+            int i = node.heapIndex;
+            Node last = heap[--size];
+            heap[size] = null;
+            node.heapIndex = -1;
+            if (i == size) return;
+            heap[i] = last;
+            last.heapIndex = i;
+            update(last);
+        }
+
+        /** Restore heap order after node's expiryTime changed. */
+        void update(Node node) {
+            siftUp(node.heapIndex);
+            siftDown(node.heapIndex);
+        }
+
+        private void siftUp(int i) {
+            Node node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].expiryTime <= node.expiryTime) break;
+                place(heap[parent], i);
+                i = parent;
             }
+            place(node, i);
         }
-    }
 
-    private void removeLeastPriorityItem() {
-        Node current = tail.prev;
-        Node leastPriorityNode = current;
-        while (current != head) {
-            if (current.priority < leastPriorityNode.priority) {
-                leastPriorityNode = current;
+        private void siftDown(int i) {
+            Node node = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && heap[child + 1].expiryTime < heap[child].expiryTime) child++;
+                if (node.expiryTime <= heap[child].expiryTime) break;
+                place(heap[child], i);
+                i = child;
             }
-            current = current.prev;
+            place(node, i);
+        }
+
+        private void place(Node node, int i) {
+            heap[i] = node;
+            node.heapIndex = i;
         }
-        // Remove the least priority node
-        removeNode(leastPriorityNode);
-        cache.remove(leastPriorityNode.key);
     }
-}
\ No newline at end of file
+}
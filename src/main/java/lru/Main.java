@@ -2,7 +2,9 @@ package lru;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
 public class Main {
 
@@ -29,5 +31,43 @@ public class Main {
 
         executor.shutdown();
         executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // capacity 1M: hits cost the same as at capacity 3
+        int capacity = 1_000_000;
+        LRUCache<Integer, Integer> locked = new LRUCache<>(capacity);
+        ClockLRUCache<Integer, Integer> clock = new ClockLRUCache<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            locked.put(i, i);
+            clock.put(i, i);
+        }
+        System.out.println("LRUCache      1M hits: " + timeHits(locked::get, capacity) + " ms");
+        System.out.println("ClockLRUCache 1M hits: " + timeHits(clock::get, capacity) + " ms");
+        System.out.println(locked.stats());
+        System.out.println(clock.stats());
+
+        // priority cache at 500k entries: every put past capacity evicts
+        LRUCacheThreadSafe priorities = new LRUCacheThreadSafe(500_000, 16);
+        long never = Long.MAX_VALUE;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000_000; i++) {
+            priorities.put(i, i, rnd.nextInt(100) == 0 ? System.currentTimeMillis() - 1 : never, rnd.nextInt(10));
+        }
+        System.out.println("LRUCacheThreadSafe 1M puts at 500k capacity: "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, " + priorities.stats());
+    }
+
+    private static long timeHits(IntFunction<Integer> get, int capacity) throws InterruptedException {
+        Thread[] readers = new Thread[4];
+        long start = System.nanoTime();
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 250_000; i++) get.apply(rnd.nextInt(capacity));
+            });
+            readers[t].start();
+        }
+        for (Thread t : readers) t.join();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
     }
 }
@@ -1,12 +1,29 @@
 package threading.keyvaluestore;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * Thread-safe hash map with striped locking.
  * Simplified version (keys/values are integers).
+ *
+ * Each stripe is a small hash table of its own guarded by a StampedLock, so a stripe
+ * resizes independently when it passes its load factor.
+ * - Writers take the stripe write lock.
+ * - With optimisticReads (the default) get() walks the chain under an optimistic stamp
+ *   and validates it, falling back to the read lock only if a writer interfered.
+ *   Otherwise get() always takes the read lock.
+ * Writers never relink nodes a reader might be standing on into a cycle: resize copies
+ * nodes and remove only unlinks, so an optimistic walk always terminates.
  */
 public class ConcurrentKVStore {
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int PARALLEL_BATCH_THRESHOLD = 1 << 14;
+
     private static class Node {
         final int key;
         int value;
@@ -18,16 +35,32 @@ public class ConcurrentKVStore {
         }
     }
 
-    private final Node[] table;
-    private final ReentrantLock[] locks;
-    private final int capacity;
+    private static class Stripe {
+        final StampedLock lock = new StampedLock();
+        Node[] table;
+        int count;
+
+        Stripe(int capacity) {
+            int c = 1;
+            while (c < capacity) c <<= 1;
+            this.table = new Node[c];
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final boolean optimisticReads;
 
     public ConcurrentKVStore(int capacity, int stripes) {
-        this.capacity = capacity;
-        this.table = new Node[capacity];
-        this.locks = new ReentrantLock[stripes];
+        this(capacity, stripes, true);
+    }
+
+    public ConcurrentKVStore(int capacity, int stripes, boolean optimisticReads) {
+        if (capacity <= 0 || stripes <= 0) throw new IllegalArgumentException("capacity and stripes must be > 0");
+        this.optimisticReads = optimisticReads;
+        this.stripes = new Stripe[stripes];
+        int perStripe = Math.max(1, capacity / stripes);
         for (int i = 0; i < stripes; i++) {
-            locks[i] = new ReentrantLock();
+            this.stripes[i] = new Stripe(perStripe);
         }
     }
 
@@ -35,61 +68,326 @@ public class ConcurrentKVStore {
         return Integer.hashCode(key) & 0x7fffffff;
     }
 
-    private ReentrantLock getLockForKey(int key) {
-        int h = hash(key);
-        return locks[h % locks.length];
+    private Stripe stripeFor(int h) {
+        return stripes[h % stripes.length];
+    }
+
+    private int indexFor(int h, int tableLength) {
+        return (h / stripes.length) & (tableLength - 1);
     }
 
     /** Put or update value for key. */
     public void put(int key, int value) {
-        ReentrantLock lock = getLockForKey(key);
-        lock.lock();
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        long stamp = s.lock.writeLock();
         try {
-            int idx = hash(key) % capacity;
-            Node head = table[idx];
-            for (Node n = head; n != null; n = n.next) {
-                if (n.key == key) {
-                    n.value = value; // update
-                    return;
-                }
-            }
-            table[idx] = new Node(key, value, head);
+            putLocked(s, h, key, value);
         } finally {
-            lock.unlock();
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Caller holds the stripe write lock. */
+    private void putLocked(Stripe s, int h, int key, int value) {
+        Node[] table = s.table;
+        int idx = indexFor(h, table.length);
+        Node head = table[idx];
+        for (Node n = head; n != null; n = n.next) {
+            if (n.key == key) {
+                n.value = value; // update
+                return;
+            }
+        }
+        table[idx] = new Node(key, value, head);
+        if (++s.count > table.length * LOAD_FACTOR) {
+            resize(s);
         }
     }
 
     /** Get value for key, or null if not present. */
     public Integer get(int key) {
-        int idx = hash(key) % capacity;
-        for (Node n = table[idx]; n != null; n = n.next) {
-            if (n.key == key) return n.value;
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        if (optimisticReads) {
+            long stamp = s.lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Node n = find(s.table, h, key);
+                boolean found = n != null;
+                int value = found ? n.value : 0;
+                if (s.lock.validate(stamp)) {
+                    return found ? value : null;
+                }
+            }
+            // a writer got in: fall through to a real read lock
+        }
+        long stamp = s.lock.readLock();
+        try {
+            Node n = find(s.table, h, key);
+            return n == null ? null : n.value;
+        } finally {
+            s.lock.unlockRead(stamp);
+        }
+    }
+
+    private Node find(Node[] table, int h, int key) {
+        for (Node n = table[indexFor(h, table.length)]; n != null; n = n.next) {
+            if (n.key == key) return n;
         }
         return null;
     }
 
     /** Remove key, return true if removed. */
     public boolean remove(int key) {
-        ReentrantLock lock = getLockForKey(key);
-        lock.lock();
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        long stamp = s.lock.writeLock();
         try {
-            int idx = hash(key) % capacity;
-            Node prev = null, curr = table[idx];
-            while (curr != null) {
-                if (curr.key == key) {
-                    if (prev == null) table[idx] = curr.next;
-                    else prev.next = curr.next;
-                    return true;
-                }
-                prev = curr;
-                curr = curr.next;
+            return removeLocked(s, h, key);
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Caller holds the stripe write lock. */
+    private boolean removeLocked(Stripe s, int h, int key) {
+        Node[] table = s.table;
+        int idx = indexFor(h, table.length);
+        Node prev = null, curr = table[idx];
+        while (curr != null) {
+            if (curr.key == key) {
+                if (prev == null) table[idx] = curr.next;
+                else prev.next = curr.next;
+                s.count--;
+                return true;
+            }
+            prev = curr;
+            curr = curr.next;
+        }
+        return false;
+    }
+
+    // ------------------- ATOMIC READ-MODIFY-WRITE -------------------
+    // Each runs under one hold of the stripe write lock and hashes the key once.
+    // Absent keys read as 0 in compute(), which suits counters.
+
+    /** Atomically set key to remapping(key, current value or 0); returns the new value. */
+    public int compute(int key, IntBinaryOperator remapping) {
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        long stamp = s.lock.writeLock();
+        try {
+            Node n = find(s.table, h, key);
+            if (n != null) {
+                n.value = remapping.applyAsInt(key, n.value);
+                return n.value;
+            }
+            int value = remapping.applyAsInt(key, 0);
+            putLocked(s, h, key, value);
+            return value;
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Put value if absent, else replace with op(current, value); returns the new value. */
+    public int merge(int key, int value, IntBinaryOperator op) {
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        long stamp = s.lock.writeLock();
+        try {
+            Node n = find(s.table, h, key);
+            if (n != null) {
+                n.value = op.applyAsInt(n.value, value);
+                return n.value;
             }
-            return false;
+            putLocked(s, h, key, value);
+            return value;
         } finally {
-            lock.unlock();
+            s.lock.unlockWrite(stamp);
         }
     }
 
+    /** Put value only if key is absent; returns the existing value, or null if inserted. */
+    public Integer putIfAbsent(int key, int value) {
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        long stamp = s.lock.writeLock();
+        try {
+            Node n = find(s.table, h, key);
+            if (n != null) return n.value;
+            putLocked(s, h, key, value);
+            return null;
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    // ------------------- BULK OPS -------------------
+    // Keys are grouped by stripe first, so each stripe lock is taken once per batch.
+    // Batches of PARALLEL_BATCH_THRESHOLD keys or more work on stripes in parallel
+    // (parallel streams run on the common ForkJoinPool).
+
+    /** Put all pairs; for duplicate keys the later pair wins. */
+    public void putAll(int[] keys, int[] values) {
+        if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+        StripeGroups g = groupByStripe(keys);
+        forEachStripe(keys.length, si -> {
+            if (g.start[si] == g.start[si + 1]) return;
+            Stripe s = stripes[si];
+            long stamp = s.lock.writeLock();
+            try {
+                for (int j = g.start[si]; j < g.start[si + 1]; j++) {
+                    int pos = g.order[j];
+                    putLocked(s, g.hashes[pos], keys[pos], values[pos]);
+                }
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+        });
+    }
+
+    /** Same as getAll(keys, out, Integer.MIN_VALUE). */
+    public int getAll(int[] keys, int[] out) {
+        return getAll(keys, out, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Look up all keys; out[i] receives the value of keys[i], or noEntryValue if absent.
+     * Each stripe is read under one read lock. Returns the number of keys found.
+     */
+    public int getAll(int[] keys, int[] out, int noEntryValue) {
+        if (out.length < keys.length) throw new IllegalArgumentException("out is shorter than keys");
+        StripeGroups g = groupByStripe(keys);
+        AtomicInteger found = new AtomicInteger();
+        forEachStripe(keys.length, si -> {
+            if (g.start[si] == g.start[si + 1]) return;
+            Stripe s = stripes[si];
+            int hits = 0;
+            long stamp = s.lock.readLock();
+            try {
+                for (int j = g.start[si]; j < g.start[si + 1]; j++) {
+                    int pos = g.order[j];
+                    Node n = find(s.table, g.hashes[pos], keys[pos]);
+                    if (n != null) hits++;
+                    out[pos] = n == null ? noEntryValue : n.value;
+                }
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+            found.addAndGet(hits);
+        });
+        return found.get();
+    }
+
+    /** Remove all keys; returns the number actually removed. */
+    public int removeAll(int[] keys) {
+        StripeGroups g = groupByStripe(keys);
+        AtomicInteger removed = new AtomicInteger();
+        forEachStripe(keys.length, si -> {
+            if (g.start[si] == g.start[si + 1]) return;
+            Stripe s = stripes[si];
+            int n = 0;
+            long stamp = s.lock.writeLock();
+            try {
+                for (int j = g.start[si]; j < g.start[si + 1]; j++) {
+                    int pos = g.order[j];
+                    if (removeLocked(s, g.hashes[pos], keys[pos])) n++;
+                }
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+            removed.addAndGet(n);
+        });
+        return removed.get();
+    }
+
+    /** Key positions bucketed by stripe: order[start[s] .. start[s + 1]) belong to stripe s. */
+    private static final class StripeGroups {
+        final int[] hashes;
+        final int[] order;
+        final int[] start;
+
+        StripeGroups(int[] hashes, int[] order, int[] start) {
+            this.hashes = hashes;
+            this.order = order;
+            this.start = start;
+        }
+    }
+
+    /** Stable counting sort of key positions by stripe, so later duplicates stay later. */
+    private StripeGroups groupByStripe(int[] keys) {
+        int[] hashes = new int[keys.length];
+        int[] start = new int[stripes.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = hash(keys[i]);
+            start[hashes[i] % stripes.length + 1]++;
+        }
+        for (int s = 0; s < stripes.length; s++) {
+            start[s + 1] += start[s];
+        }
+        int[] fill = Arrays.copyOf(start, stripes.length);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[fill[hashes[i] % stripes.length]++] = i;
+        }
+        return new StripeGroups(hashes, order, start);
+    }
+
+    private void forEachStripe(int batchSize, IntConsumer action) {
+        IntStream range = IntStream.range(0, stripes.length);
+        if (batchSize >= PARALLEL_BATCH_THRESHOLD) range = range.parallel();
+        range.forEach(action);
+    }
+
+    /** Number of entries; sums stripes without a global lock, so approximate under writes. */
+    public int size() {
+        int total = 0;
+        for (Stripe s : stripes) {
+            long stamp = s.lock.readLock();
+            try {
+                total += s.count;
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Visit every entry. Each stripe is visited under its read lock, so the view is
+     * consistent per stripe but not across stripes.
+     */
+    public void forEach(IntIntConsumer action) {
+        for (Stripe s : stripes) {
+            long stamp = s.lock.readLock();
+            try {
+                for (Node head : s.table) {
+                    for (Node n = head; n != null; n = n.next) {
+                        action.accept(n.key, n.value);
+                    }
+                }
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /** Double one stripe's table. Caller holds the stripe write lock. */
+    private void resize(Stripe s) {
+        Node[] old = s.table;
+        Node[] table = new Node[old.length * 2];
+        for (Node head : old) {
+            for (Node n = head; n != null; n = n.next) {
+                int h = hash(n.key);
+                int idx = indexFor(h, table.length);
+                // copy rather than relink: optimistic readers may still be walking the old chain
+                table[idx] = new Node(n.key, n.value, table[idx]);
+            }
+        }
+        s.table = table;
+    }
+
     // ------------------- DEMO -------------------
     public static void main(String[] args) throws InterruptedException {
         ConcurrentKVStore kv = new ConcurrentKVStore(1024, 16);
@@ -112,6 +410,18 @@ public class ConcurrentKVStore {
         t1.start(); t2.start(); t3.start();
         t1.join(); t2.join(); t3.join();
 
-        System.out.println("Value for 42 = " + kv.get(42));
+        System.out.println("Value for 42 = " + kv.get(42) + ", size = " + kv.size());
+
+        int[] keys = new int[100000];
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 20000 + i;
+            values[i] = i;
+        }
+        kv.putAll(keys, values);
+        int[] out = new int[keys.length];
+        int found = kv.getAll(keys, out);
+        int removed = kv.removeAll(keys);
+        System.out.println("bulk: found=" + found + " out[5]=" + out[5] + " removed=" + removed + ", size = " + kv.size());
     }
 }
@@ -0,0 +1,235 @@
+package threading.keyvaluestore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * ConcurrentKVStore made durable with a WriteAheadLog plus periodic checkpoints.
+ *
+ * Directory layout: checkpoint.snap (full copy of the store) and wal.log (mutations since).
+ * - put/remove log the mutation and apply it under a per-key stripe lock, so the log
+ *   order of each key matches the order its updates were applied; the (group-committed)
+ *   fsync wait happens after that lock is released.
+ * - checkpoint() briefly blocks mutations, writes a new snapshot, then truncates the log.
+ * - open() loads the snapshot, replays the log on top of it, and only then starts the
+ *   periodic checkpoints, so the timer never sees a half-built store.
+ */
+public class DurableKVStore implements AutoCloseable {
+    private static final long SNAPSHOT_MAGIC = 0x4B56534E41505348L; // "KVSNAPSH"
+
+    private final ConcurrentKVStore store;
+    private final WriteAheadLog wal;
+    private final Path snapshotFile;
+    private final ReentrantLock[] keyLocks;
+    // mutations share it, checkpoints take it exclusively
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private volatile ScheduledExecutorService checkpointer; // set by open(), if at all
+
+    /** Recover the store in dir (empty if there is none); checkpointIntervalMs <= 0 disables checkpoints. */
+    public static DurableKVStore open(Path dir, int capacity, int stripes, WriteAheadLog.FsyncPolicy policy,
+                                      long fsyncIntervalMs, long checkpointIntervalMs) throws IOException {
+        DurableKVStore kv = new DurableKVStore(dir, capacity, stripes, policy, fsyncIntervalMs);
+        if (checkpointIntervalMs > 0) kv.startCheckpoints(checkpointIntervalMs);
+        return kv;
+    }
+
+    private DurableKVStore(Path dir, int capacity, int stripes, WriteAheadLog.FsyncPolicy policy,
+                           long fsyncIntervalMs) throws IOException {
+        Files.createDirectories(dir);
+        this.store = new ConcurrentKVStore(capacity, stripes);
+        this.snapshotFile = dir.resolve("checkpoint.snap");
+        Path logFile = dir.resolve("wal.log");
+
+        // recovery: snapshot first, then everything logged after it
+        loadSnapshot();
+        WriteAheadLog.replay(logFile, store::put, store::remove);
+        this.wal = new WriteAheadLog(logFile, policy, fsyncIntervalMs);
+
+        this.keyLocks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private void startCheckpoints(long intervalMs) {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "kv-checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("checkpoint failed: " + e);
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private ReentrantLock keyLock(int key) {
+        return keyLocks[(Integer.hashCode(key) & 0x7fffffff) % keyLocks.length];
+    }
+
+    /** Put or update value for key; returns once the write is as durable as the fsync policy promises. */
+    public void put(int key, int value) {
+        try {
+            long seq;
+            checkpointLock.readLock().lock();
+            try {
+                ReentrantLock lock = keyLock(key);
+                lock.lock();
+                try {
+                    seq = wal.append(WriteAheadLog.OP_PUT, key, value);
+                    store.put(key, value);
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            wal.sync(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Get value for key, or null if not present. */
+    public Integer get(int key) {
+        return store.get(key);
+    }
+
+    /** Remove key, return true if removed. Only actual removals are logged. */
+    public boolean remove(int key) {
+        try {
+            long seq;
+            checkpointLock.readLock().lock();
+            try {
+                ReentrantLock lock = keyLock(key);
+                lock.lock();
+                try {
+                    if (store.get(key) == null) return false;
+                    // log first, as put() does: a failed append must leave the key in place
+                    seq = wal.append(WriteAheadLog.OP_REMOVE, key, 0);
+                    store.remove(key);
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+            wal.sync(seq);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    /** Write a snapshot of the store (fsynced, atomically renamed) and truncate the log. */
+    public void checkpoint() throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                CRC32C crc = new CRC32C();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new CheckedOutputStream(Channels.newOutputStream(ch), crc)));
+                out.writeLong(SNAPSHOT_MAGIC);
+                out.writeInt(store.size()); // exact: no mutation can run right now
+                IOException[] failure = new IOException[1];
+                store.forEach((k, v) -> {
+                    if (failure[0] != null) return;
+                    try {
+                        out.writeInt(k);
+                        out.writeInt(v);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) throw failure[0];
+                out.flush();
+                out.writeInt((int) crc.getValue());
+                out.flush();
+                ch.force(true);
+            }
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            wal.truncate();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) return;
+        CRC32C crc = new CRC32C();
+        // checksum below the DataInputStream but above the buffer, so read-ahead is not counted
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile)), crc))) {
+            if (in.readLong() != SNAPSHOT_MAGIC) throw new IOException("not a checkpoint: " + snapshotFile);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                store.put(in.readInt(), in.readInt());
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) throw new IOException("corrupt checkpoint: " + snapshotFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (checkpointer != null) checkpointer.shutdownNow();
+        wal.close();
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("durable-kv");
+        DurableKVStore kv = DurableKVStore.open(dir, 1024, 16, WriteAheadLog.FsyncPolicy.EVERY_WRITE, 0, 0);
+
+        Runnable writer = () -> {
+            for (int i = 0; i < 2000; i++) {
+                kv.put(i, i * 10);
+            }
+        };
+        Thread[] writers = new Thread[8];
+        long start = System.nanoTime();
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(writer);
+            writers[t].start();
+        }
+        for (Thread t : writers) t.join();
+        System.out.println("16000 durable puts in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+        kv.checkpoint();
+        kv.put(42, -1);
+        kv.remove(7);
+        kv.close(); // pretend we crashed after this point
+
+        DurableKVStore recovered = DurableKVStore.open(dir, 1024, 16, WriteAheadLog.FsyncPolicy.INTERVAL, 10, 0);
+        System.out.println("recovered size=" + recovered.size() + " value for 42 = " + recovered.get(42)
+                + " value for 7 = " + recovered.get(7));
+        recovered.close();
+    }
+}
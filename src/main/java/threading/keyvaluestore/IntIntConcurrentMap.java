@@ -0,0 +1,309 @@
+package threading.keyvaluestore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Concurrent open-addressing int -> int map with no per-entry objects.
+ *
+ * Layout: parallel arrays keys[] (AtomicIntegerArray) and slots[] (AtomicLongArray),
+ * linear probing over a power-of-two table.
+ * - keys[i] is claimed once by CAS from FREE_KEY and never changes afterwards.
+ * - slots[i] packs the value: PRESENT bit | (value & 0xffffffff); 0 means absent.
+ *   A removed key keeps its key slot with an absent value (tombstone).
+ * - get() returns a caller-chosen noEntryValue instead of null, so reads never box.
+ * - Key 0 is the FREE_KEY marker, so its value lives in a separate slot.
+ *
+ * Tombstone compaction (and growth) rebuilds the table cooperatively, like
+ * ResizableLockFreeKVStore: the next table hangs off the old one and its slots are handed
+ * out in strides. Each slot is frozen with the MOVED bit before its live entry is copied.
+ * Readers keep reading frozen slots. A writer that hits a frozen slot, or a full table,
+ * claims strides and copies them too. Once every stride is handed out it yields until the
+ * last helper publishes the new table, then retries there. Writes therefore stall for a
+ * rebuild, but only for about one stride's copy once enough writers help, not for a
+ * single thread copying the whole table.
+ */
+public class IntIntConcurrentMap {
+    private static final int FREE_KEY = 0;
+    private static final long ABSENT = 0L;
+    private static final long PRESENT = 1L << 32;
+    private static final long MOVED = 1L << 33;
+    private static final long VALUE_MASK = 0xffffffffL;
+    private static final int MIN_TRANSFER_STRIDE = 1024;
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    private static final class Table {
+        final AtomicIntegerArray keys;
+        final AtomicLongArray slots;
+        final int mask;
+        // claimed key slots, live or tombstoned
+        final AtomicInteger used = new AtomicInteger(0);
+        // set once when a rebuild of this table starts
+        final AtomicReference<Table> nextTable = new AtomicReference<>();
+        // next slot range to hand out (counts down to 0)
+        final AtomicInteger transferIndex;
+        // number of slots fully migrated
+        final AtomicInteger transferred = new AtomicInteger(0);
+
+        Table(int capacity) {
+            this.keys = new AtomicIntegerArray(capacity);
+            this.slots = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            this.transferIndex = new AtomicInteger(capacity);
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+
+    private final AtomicReference<Table> tableRef;
+    private final AtomicLongArray zeroKeySlot = new AtomicLongArray(1);
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final float loadFactor;
+    private final int noEntryValue;
+
+    public IntIntConcurrentMap(int initCapacity) {
+        this(initCapacity, 0.5f, Integer.MIN_VALUE);
+    }
+
+    public IntIntConcurrentMap(int initCapacity, float loadFactor, int noEntryValue) {
+        if (initCapacity <= 0) throw new IllegalArgumentException("capacity > 0");
+        if (loadFactor <= 0 || loadFactor >= 1) throw new IllegalArgumentException("0 < loadFactor < 1");
+        this.tableRef = new AtomicReference<>(new Table(tableSizeFor(initCapacity)));
+        this.loadFactor = loadFactor;
+        this.noEntryValue = noEntryValue;
+    }
+
+    private static int tableSizeFor(int n) {
+        int c = 16;
+        while (c < n) c <<= 1;
+        return c;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Value returned by get() when the key is absent. */
+    public int noEntryValue() {
+        return noEntryValue;
+    }
+
+    /** Get value for key, or noEntryValue if absent. Never allocates. */
+    public int get(int key) {
+        long v = (key == FREE_KEY) ? zeroKeySlot.get(0) : find(tableRef.get(), key);
+        return (v & PRESENT) != 0 ? (int) (v & VALUE_MASK) : noEntryValue;
+    }
+
+    public boolean containsKey(int key) {
+        long v = (key == FREE_KEY) ? zeroKeySlot.get(0) : find(tableRef.get(), key);
+        return (v & PRESENT) != 0;
+    }
+
+    private long find(Table t, int key) {
+        int i = mix(key) & t.mask;
+        for (int probes = 0; probes <= t.mask; probes++) {
+            int k = t.keys.get(i);
+            if (k == key) return t.slots.get(i);
+            if (k == FREE_KEY) return ABSENT;
+            i = (i + 1) & t.mask;
+        }
+        return ABSENT;
+    }
+
+    /** Put or update value for key. */
+    public void put(int key, int value) {
+        long packed = PRESENT | (value & VALUE_MASK);
+        if (key == FREE_KEY) {
+            if ((zeroKeySlot.getAndSet(0, packed) & PRESENT) == 0) size.incrementAndGet();
+            return;
+        }
+        while (true) {
+            Table t = tableRef.get();
+            int i = slotFor(t, key);
+            if (i < 0) {
+                rebuild(t);
+                continue;
+            }
+            long old = t.slots.get(i);
+            if ((old & MOVED) != 0) {
+                rebuild(t);
+                continue;
+            }
+            if (t.slots.compareAndSet(i, old, packed)) {
+                if ((old & PRESENT) == 0) size.incrementAndGet();
+                return;
+            }
+            // value changed (or slot frozen) under us; retry
+        }
+    }
+
+    /** Remove key, return true if removed. Leaves a tombstone that compaction reclaims. */
+    public boolean remove(int key) {
+        if (key == FREE_KEY) {
+            boolean removed = (zeroKeySlot.getAndSet(0, ABSENT) & PRESENT) != 0;
+            if (removed) size.decrementAndGet();
+            return removed;
+        }
+        while (true) {
+            Table t = tableRef.get();
+            int i = indexOf(t, key);
+            if (i < 0) return false;
+            long old = t.slots.get(i);
+            if ((old & MOVED) != 0) {
+                rebuild(t);
+                continue;
+            }
+            if ((old & PRESENT) == 0) return false;
+            if (t.slots.compareAndSet(i, old, ABSENT)) {
+                size.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /** Index of key's slot, or -1 if the key was never inserted. */
+    private int indexOf(Table t, int key) {
+        int i = mix(key) & t.mask;
+        for (int probes = 0; probes <= t.mask; probes++) {
+            int k = t.keys.get(i);
+            if (k == key) return i;
+            if (k == FREE_KEY) return -1;
+            i = (i + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    /** Index of key's slot, claiming a free one if needed; -1 if the table must be rebuilt. */
+    private int slotFor(Table t, int key) {
+        int i = mix(key) & t.mask;
+        for (int probes = 0; probes <= t.mask; probes++) {
+            int k = t.keys.get(i);
+            if (k == key) return i;
+            if (k == FREE_KEY) {
+                if (t.used.get() >= (int) (t.capacity() * loadFactor)) return -1;
+                if (t.keys.compareAndSet(i, FREE_KEY, key)) {
+                    t.used.incrementAndGet();
+                    return i;
+                }
+                if (t.keys.get(i) == key) return i; // lost the race to the same key
+            }
+            i = (i + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Compact tombstones away and grow if the live set still needs it: start the rebuild of
+     * old if nobody has, help copy it, and return once the new table is published.
+     */
+    private void rebuild(Table old) {
+        Table next = old.nextTable.get();
+        if (next == null) {
+            int newCap = old.capacity();
+            if (size.get() >= (int) (newCap * loadFactor) / 2) newCap <<= 1;
+            Table candidate = new Table(newCap);
+            next = old.nextTable.compareAndSet(null, candidate) ? candidate : old.nextTable.get();
+        }
+        while (helpTransfer(old, next)) {
+            // keep claiming strides until all are handed out
+        }
+        // the remaining strides are in other helpers' hands; each is short
+        for (int spins = 0; tableRef.get() == old; spins++) {
+            if (spins < 64) Thread.onSpinWait();
+            else Thread.yield();
+        }
+    }
+
+    /**
+     * Claim one stride of old's slots and copy it into fresh; false if none is left.
+     * The thread that completes the last slot publishes fresh.
+     */
+    private boolean helpTransfer(Table old, Table fresh) {
+        int stride = Math.max(MIN_TRANSFER_STRIDE, old.capacity() / (NCPU * 8));
+        while (true) {
+            int hi = old.transferIndex.get();
+            if (hi <= 0) return false;
+            int lo = Math.max(0, hi - stride);
+            if (!old.transferIndex.compareAndSet(hi, lo)) continue;
+
+            for (int i = lo; i < hi; i++) {
+                transferSlot(old, fresh, i);
+            }
+            if (old.transferred.addAndGet(hi - lo) == old.capacity()) {
+                tableRef.compareAndSet(old, fresh);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Freeze slot i, then copy its entry if live. Writers CAS against the exact old value,
+     * so they fail from the freeze on, and fresh receives the slot's final value. Keys are
+     * unique, and fresh is only written by helpers until it is published, so claiming a
+     * free key slot by CAS is enough.
+     */
+    private void transferSlot(Table old, Table fresh, int i) {
+        long v;
+        do {
+            v = old.slots.get(i);
+        } while (!old.slots.compareAndSet(i, v, v | MOVED));
+        if ((v & PRESENT) == 0) return;
+        int key = old.keys.get(i);
+        int j = mix(key) & fresh.mask;
+        while (!fresh.keys.compareAndSet(j, FREE_KEY, key)) j = (j + 1) & fresh.mask;
+        fresh.slots.set(j, v);
+        fresh.used.incrementAndGet();
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws InterruptedException {
+        IntIntConcurrentMap map = new IntIntConcurrentMap(1024);
+
+        Runnable writer = () -> {
+            for (int i = 0; i < 100000; i++) {
+                map.put(i, i * 10);
+            }
+        };
+
+        Runnable churner = () -> {
+            for (int i = 100000; i < 200000; i++) {
+                map.put(i, i);
+                map.remove(i);
+            }
+        };
+
+        Runnable reader = () -> {
+            long sum = 0;
+            for (int i = 0; i < 100000; i++) {
+                int v = map.get(i);
+                if (v != map.noEntryValue()) sum += v;
+            }
+            System.out.println("reader sum=" + sum);
+        };
+
+        Thread t1 = new Thread(writer);
+        Thread t2 = new Thread(churner);
+        Thread t3 = new Thread(reader);
+        Thread t4 = new Thread(writer);
+        t1.start(); t2.start(); t3.start(); t4.start();
+        t1.join(); t2.join(); t3.join(); t4.join();
+
+        int missing = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (map.get(i) != i * 10) missing++;
+        }
+        System.out.println("size=" + map.size() + " missing=" + missing);
+        System.out.println("Value for 42 = " + map.get(42));
+        map.remove(42);
+        System.out.println("After remove, contains 42 = " + map.containsKey(42));
+    }
+}
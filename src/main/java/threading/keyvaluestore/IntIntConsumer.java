@@ -0,0 +1,9 @@
+package threading.keyvaluestore;
+
+/**
+ * Callback over (key, value) pairs of the int-keyed stores, without boxing.
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+    void accept(int key, int value);
+}
@@ -1,30 +1,68 @@
 package threading.keyvaluestore;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
 
 /**
  * Lock-free key-value store using AtomicReferenceArray + CAS.
  * Simplified: integer keys & values.
+ *
+ * - New keys are CAS-ed onto the bucket head.
+ * - Each node has a value cell (a long: the value, plus a DELETED bit). Updating an
+ *   existing key CASes that cell in place, so an update allocates nothing.
+ * - remove() CASes the DELETED bit (the linearization point), then unlinks the node.
+ *   Unlinking is serialized per lock stripe, so a stale pointer never re-links a dead node.
+ *   Reads, inserts and updates stay lock-free.
+ * - Unlinked nodes are retired to an epoch-based Recycler and reused by later inserts
+ *   once no thread that could still see them is inside an operation.
  */
 public class LockFreeKVStore {
-    private static class Node {
-        final int key;
-        final int value;
-        final Node next;
+    private static final int PARALLEL_BATCH_THRESHOLD = 1 << 14;
+    private static final long DELETED = 1L << 32;
+    private static final long VALUE_MASK = 0xffffffffL;
+
+    private static final class Node {
+        int key;
+        volatile long cell;
+        volatile Node next;
+        long retiredEpoch;
 
         Node(int key, int value, Node next) {
+            init(key, value, next);
+        }
+
+        void init(int key, int value, Node next) {
             this.key = key;
-            this.value = value;
             this.next = next;
+            this.cell = value & VALUE_MASK; // volatile write last: publishes key and next
+        }
+
+        boolean isDeleted() {
+            return (cell & DELETED) != 0;
         }
     }
 
+    private static final AtomicLongFieldUpdater<Node> CELL = AtomicLongFieldUpdater.newUpdater(Node.class, "cell");
+
     private final AtomicReferenceArray<Node> table;
+    private final ReentrantLock[] unlinkLocks;
     private final int capacity;
+    private final Recycler recycler = new Recycler();
 
     public LockFreeKVStore(int capacity) {
         this.capacity = capacity;
         this.table = new AtomicReferenceArray<>(capacity);
+        this.unlinkLocks = new ReentrantLock[Math.min(capacity, 64)];
+        for (int i = 0; i < unlinkLocks.length; i++) {
+            unlinkLocks[i] = new ReentrantLock();
+        }
     }
 
     private int hash(int key) {
@@ -34,69 +72,379 @@ public class LockFreeKVStore {
     /** Get value for key (lock-free, wait-free). */
     public Integer get(int key) {
         int idx = hash(key) % capacity;
-        Node n = table.get(idx);
-        while (n != null) {
-            if (n.key == key) return n.value;
-            n = n.next;
+        Recycler.ThreadState ts = recycler.enter();
+        try {
+            Node n = findLive(table.get(idx), key);
+            if (n == null) return null;
+            long c = n.cell;
+            return (c & DELETED) != 0 ? null : (int) c;
+        } finally {
+            recycler.exit(ts);
         }
-        return null;
     }
 
-    /** Put key/value (CAS-based). */
+    /** Put key/value (CAS-based). Updates an existing key in place. */
     public void put(int key, int value) {
         int idx = hash(key) % capacity;
-        while (true) {
-            Node head = table.get(idx);
-
-            // check if key already exists
-            for (Node n = head; n != null; n = n.next) {
-                if (n.key == key) {
-                    // replace value by inserting new node at head
-                    Node newHead = new Node(key, value, removeFromChain(head, key));
-                    if (table.compareAndSet(idx, head, newHead)) {
-                        return;
-                    } else {
-                        break; // retry
-                    }
+        Recycler.ThreadState ts = recycler.enter();
+        try {
+            while (true) {
+                Node head = table.get(idx);
+                Node existing = findLive(head, key);
+                if (existing != null) {
+                    if (update(existing, value)) return;
+                    continue; // removed under us; insert afresh
                 }
+                // insert new node at head
+                Node node = recycler.allocate(ts, key, value, head);
+                if (table.compareAndSet(idx, head, node)) {
+                    return;
+                }
+                recycler.recycleUnpublished(ts, node);
+                // else retry
             }
-
-            // insert new node at head
-            Node newHead = new Node(key, value, head);
-            if (table.compareAndSet(idx, head, newHead)) {
-                return;
-            }
-            // else retry
+        } finally {
+            recycler.exit(ts);
         }
     }
 
     /** Remove key (CAS-based). Returns true if removed. */
     public boolean remove(int key) {
         int idx = hash(key) % capacity;
+        Recycler.ThreadState ts = recycler.enter();
+        try {
+            while (true) {
+                Node n = findLive(table.get(idx), key);
+                if (n == null) return false;
+                if (markDeleted(n)) {
+                    ReentrantLock lock = unlinkLocks[idx % unlinkLocks.length];
+                    lock.lock();
+                    try {
+                        unlink(idx, n, ts);
+                    } finally {
+                        lock.unlock();
+                    }
+                    return true;
+                }
+                // someone else deleted it first; look again
+            }
+        } finally {
+            recycler.exit(ts);
+        }
+    }
+
+    private Node findLive(Node head, int key) {
+        for (Node n = head; n != null; n = n.next) {
+            if (n.key == key && !n.isDeleted()) return n;
+        }
+        return null;
+    }
+
+    /** CAS the value cell unless the node is deleted. */
+    private boolean update(Node n, int value) {
+        while (true) {
+            long c = n.cell;
+            if ((c & DELETED) != 0) return false;
+            if (CELL.compareAndSet(n, c, value & VALUE_MASK)) return true;
+        }
+    }
+
+    private boolean markDeleted(Node n) {
+        while (true) {
+            long c = n.cell;
+            if ((c & DELETED) != 0) return false;
+            if (CELL.compareAndSet(n, c, c | DELETED)) return true;
+        }
+    }
+
+    /** Physically unlink a deleted node and retire it. Caller holds the bucket's unlink lock. */
+    private void unlink(int idx, Node victim, Recycler.ThreadState ts) {
         while (true) {
             Node head = table.get(idx);
-            if (head == null) return false;
+            if (head == victim) {
+                // inserts race with us on the head, so this one needs a CAS
+                if (table.compareAndSet(idx, victim, victim.next)) break;
+                continue;
+            }
+            Node pred = head;
+            while (pred != null && pred.next != victim) pred = pred.next;
+            if (pred == null) return; // not reachable (cannot happen while we hold the lock)
+            // only unlinkers touch interior next pointers, and we hold the lock
+            pred.next = victim.next;
+            break;
+        }
+        recycler.retire(ts, victim);
+    }
+
+    // ------------------- ATOMIC READ-MODIFY-WRITE -------------------
+    // CAS loops on the value cell (or a single head CAS for a new key). On contention the
+    // function may be applied more than once, so it must be free of side effects.
+    // Absent keys read as 0 in compute(), which suits counters.
+
+    /** Atomically set key to remapping(key, current value or 0); returns the new value. */
+    public int compute(int key, IntBinaryOperator remapping) {
+        return readModifyWrite(key, (k, current, present) -> remapping.applyAsInt(k, present ? current : 0), true);
+    }
+
+    /** Put value if absent, else replace with op(current, value); returns the new value. */
+    public int merge(int key, int value, IntBinaryOperator op) {
+        return readModifyWrite(key, (k, current, present) -> present ? op.applyAsInt(current, value) : value, true);
+    }
+
+    /** Put value only if key is absent; returns the existing value, or null if inserted. */
+    public Integer putIfAbsent(int key, int value) {
+        int[] existing = new int[1];
+        boolean[] found = {false};
+        readModifyWrite(key, (k, current, present) -> {
+            found[0] = present;
+            existing[0] = current;
+            return present ? current : value;
+        }, false);
+        return found[0] ? existing[0] : null;
+    }
+
+    private interface CellFunction {
+        int apply(int key, int current, boolean present);
+    }
+
+    /** Shared CAS loop; with writeIfPresent false an existing value is left untouched. */
+    private int readModifyWrite(int key, CellFunction fn, boolean writeIfPresent) {
+        int idx = hash(key) % capacity;
+        Recycler.ThreadState ts = recycler.enter();
+        try {
+            while (true) {
+                Node head = table.get(idx);
+                Node existing = findLive(head, key);
+                if (existing != null) {
+                    long c = existing.cell;
+                    if ((c & DELETED) != 0) continue; // removed under us
+                    int next = fn.apply(key, (int) c, true);
+                    if (!writeIfPresent || CELL.compareAndSet(existing, c, next & VALUE_MASK)) return next;
+                    continue;
+                }
+                int value = fn.apply(key, 0, false);
+                Node node = recycler.allocate(ts, key, value, head);
+                if (table.compareAndSet(idx, head, node)) return value;
+                recycler.recycleUnpublished(ts, node);
+            }
+        } finally {
+            recycler.exit(ts);
+        }
+    }
+
+    // ------------------- BULK OPS -------------------
+    // Pairs are sorted by bucket so each bucket's run is handled together: existing keys
+    // are updated in place and all new keys of the run go in with a single head CAS.
+    // Batches of PARALLEL_BATCH_THRESHOLD keys or more spread their runs over the
+    // common ForkJoinPool via a parallel stream.
+
+    /** Put all pairs; for duplicate keys the later pair wins. */
+    public void putAll(int[] keys, int[] values) {
+        if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+        long[] runs = sortByBucket(keys);
+        forEachRun(runs, (from, to) -> {
+            int idx = (int) (runs[from] >>> 32);
+            Recycler.ThreadState ts = recycler.enter();
+            try {
+                while (true) {
+                    Node head = table.get(idx);
+                    Node pending = null, pendingTail = null;
+                    for (int j = from; j < to; j++) {
+                        int pos = (int) runs[j];
+                        Node p = findLive(pending, keys[pos]);
+                        if (p != null) {
+                            p.cell = values[pos] & VALUE_MASK; // still private to us
+                            continue;
+                        }
+                        Node existing = findLive(head, keys[pos]);
+                        if (existing != null && update(existing, values[pos])) continue;
+                        Node node = recycler.allocate(ts, keys[pos], values[pos], pending);
+                        if (pending == null) pendingTail = node;
+                        pending = node;
+                    }
+                    if (pending == null) return 0;
+                    pendingTail.next = head;
+                    if (table.compareAndSet(idx, head, pending)) return 0;
+                    // head moved: a racing insert may have added one of our keys; redo the run
+                    for (Node n = pending, next; n != head; n = next) {
+                        next = n.next;
+                        recycler.recycleUnpublished(ts, n);
+                    }
+                }
+            } finally {
+                recycler.exit(ts);
+            }
+        });
+    }
+
+    /** Same as getAll(keys, out, Integer.MIN_VALUE). */
+    public int getAll(int[] keys, int[] out) {
+        return getAll(keys, out, Integer.MIN_VALUE);
+    }
 
-            Node newHead = removeFromChain(head, key);
-            if (newHead == head) {
-                // key not found
-                return false;
+    /**
+     * Look up all keys; out[i] receives the value of keys[i], or noEntryValue if absent.
+     * Each bucket head is read once per run. Returns the number of keys found.
+     */
+    public int getAll(int[] keys, int[] out, int noEntryValue) {
+        if (out.length < keys.length) throw new IllegalArgumentException("out is shorter than keys");
+        long[] runs = sortByBucket(keys);
+        return forEachRun(runs, (from, to) -> {
+            Recycler.ThreadState ts = recycler.enter();
+            try {
+                Node head = table.get((int) (runs[from] >>> 32));
+                int hits = 0;
+                for (int j = from; j < to; j++) {
+                    int pos = (int) runs[j];
+                    out[pos] = noEntryValue;
+                    Node n = findLive(head, keys[pos]);
+                    if (n != null) {
+                        long c = n.cell;
+                        if ((c & DELETED) == 0) {
+                            out[pos] = (int) c;
+                            hits++;
+                        }
+                    }
+                }
+                return hits;
+            } finally {
+                recycler.exit(ts);
             }
-            if (table.compareAndSet(idx, head, newHead)) {
-                return true;
+        });
+    }
+
+    /** Remove all keys; returns the number actually removed. Takes each bucket's unlink lock once. */
+    public int removeAll(int[] keys) {
+        long[] runs = sortByBucket(keys);
+        return forEachRun(runs, (from, to) -> {
+            int idx = (int) (runs[from] >>> 32);
+            Recycler.ThreadState ts = recycler.enter();
+            try {
+                Node[] victims = new Node[to - from];
+                int removed = 0;
+                for (int j = from; j < to; j++) {
+                    while (true) {
+                        Node n = findLive(table.get(idx), keys[(int) runs[j]]);
+                        if (n == null) break;
+                        if (markDeleted(n)) {
+                            victims[removed++] = n;
+                            break;
+                        }
+                    }
+                }
+                if (removed > 0) {
+                    ReentrantLock lock = unlinkLocks[idx % unlinkLocks.length];
+                    lock.lock();
+                    try {
+                        for (int v = 0; v < removed; v++) unlink(idx, victims[v], ts);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return removed;
+            } finally {
+                recycler.exit(ts);
             }
-            // retry
+        });
+    }
+
+    /** (bucket << 32 | position) for every key, sorted: equal buckets form runs, positions stay in order. */
+    private long[] sortByBucket(int[] keys) {
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            packed[i] = ((long) (hash(keys[i]) % capacity) << 32) | i;
+        }
+        if (keys.length >= PARALLEL_BATCH_THRESHOLD) Arrays.parallelSort(packed);
+        else Arrays.sort(packed);
+        return packed;
+    }
+
+    private interface RunAction {
+        /** Handle runs[from, to), all in one bucket; returns a count to sum. */
+        int apply(int from, int to);
+    }
+
+    private int forEachRun(long[] runs, RunAction action) {
+        // collect run boundaries
+        int[] bounds = new int[runs.length + 1];
+        int nRuns = 0;
+        for (int i = 0; i < runs.length; i++) {
+            if (i == 0 || (runs[i] >>> 32) != (runs[i - 1] >>> 32)) bounds[nRuns++] = i;
         }
+        bounds[nRuns] = runs.length;
+        IntStream r = IntStream.range(0, nRuns);
+        if (runs.length >= PARALLEL_BATCH_THRESHOLD) r = r.parallel();
+        return r.map(k -> action.apply(bounds[k], bounds[k + 1])).sum();
     }
 
-    /** Utility: rebuild chain without given key. */
-    private Node removeFromChain(Node head, int key) {
-        if (head == null) return null;
-        if (head.key == key) return head.next;
+    /**
+     * Epoch-based reclamation for unlinked nodes.
+     * - Every operation runs between enter() and exit(); enter() records the global epoch
+     *   the thread is working in.
+     * - A retired node is tagged with the epoch it was retired in, and is safe to reuse once
+     *   every thread inside an operation entered in a later epoch.
+     * - Limbo lists and free pools are per thread, so reuse needs no synchronization.
+     */
+    private static final class Recycler {
+        private static final long IDLE = Long.MAX_VALUE;
+        private static final int RECLAIM_EVERY = 64;
+        private static final int MAX_POOL = 1024;
+
+        static final class ThreadState {
+            volatile long activeEpoch = IDLE;
+            final ArrayDeque<Node> limbo = new ArrayDeque<>();
+            final ArrayDeque<Node> pool = new ArrayDeque<>();
+        }
+
+        private final AtomicLong globalEpoch = new AtomicLong(0);
+        private final CopyOnWriteArrayList<ThreadState> threads = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<ThreadState> local = ThreadLocal.withInitial(() -> {
+            ThreadState ts = new ThreadState();
+            threads.add(ts);
+            return ts;
+        });
+
+        ThreadState enter() {
+            ThreadState ts = local.get();
+            ts.activeEpoch = globalEpoch.get();
+            return ts;
+        }
+
+        void exit(ThreadState ts) {
+            ts.activeEpoch = IDLE;
+        }
+
+        Node allocate(ThreadState ts, int key, int value, Node next) {
+            Node n = ts.pool.poll();
+            if (n == null) return new Node(key, value, next);
+            n.init(key, value, next);
+            return n;
+        }
+
+        /** A node that lost its publishing CAS was never visible: reuse it at once. */
+        void recycleUnpublished(ThreadState ts, Node n) {
+            if (ts.pool.size() < MAX_POOL) ts.pool.push(n);
+        }
+
+        void retire(ThreadState ts, Node n) {
+            n.retiredEpoch = globalEpoch.get();
+            ts.limbo.add(n);
+            if (ts.limbo.size() >= RECLAIM_EVERY) reclaim(ts);
+        }
 
-        Node newNext = removeFromChain(head.next, key);
-        if (newNext == head.next) return head; // unchanged
-        return new Node(head.key, head.value, newNext);
+        private void reclaim(ThreadState ts) {
+            long oldestActive = IDLE;
+            for (ThreadState t : threads) {
+                oldestActive = Math.min(oldestActive, t.activeEpoch);
+            }
+            long epoch = globalEpoch.get();
+            // every active thread has caught up with the current epoch: open a new one
+            if (oldestActive >= epoch) globalEpoch.compareAndSet(epoch, epoch + 1);
+            while (!ts.limbo.isEmpty() && ts.limbo.peek().retiredEpoch < oldestActive) {
+                Node n = ts.limbo.poll();
+                if (ts.pool.size() < MAX_POOL) ts.pool.push(n);
+            }
+        }
     }
 
     // ------------------- DEMO -------------------
@@ -115,14 +463,34 @@ public class LockFreeKVStore {
             }
         };
 
+        Runnable churner = () -> {
+            for (int round = 0; round < 20; round++) {
+                for (int i = 10000; i < 12000; i++) kv.put(i, i);
+                for (int i = 10000; i < 12000; i++) kv.remove(i);
+            }
+        };
+
         Thread t1 = new Thread(writer);
         Thread t2 = new Thread(reader);
         Thread t3 = new Thread(writer);
-        t1.start(); t2.start(); t3.start();
-        t1.join(); t2.join(); t3.join();
+        Thread t4 = new Thread(churner);
+        t1.start(); t2.start(); t3.start(); t4.start();
+        t1.join(); t2.join(); t3.join(); t4.join();
 
         System.out.println("Value for 42 = " + kv.get(42));
         kv.remove(42);
         System.out.println("After remove, value for 42 = " + kv.get(42));
+
+        int[] keys = new int[100000];
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 20000 + i;
+            values[i] = i;
+        }
+        kv.putAll(keys, values);
+        int[] out = new int[keys.length];
+        int found = kv.getAll(keys, out);
+        int removed = kv.removeAll(keys);
+        System.out.println("bulk: found=" + found + " out[5]=" + out[5] + " removed=" + removed);
     }
 }
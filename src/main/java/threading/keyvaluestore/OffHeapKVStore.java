@@ -0,0 +1,392 @@
+package threading.keyvaluestore;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap key-value store (integer keys & values), one MemorySegment table per lock stripe.
+ *
+ * Layout of a stripe table:
+ *   slots: state(int) | key(int) | value(int) | pad(int), 16 bytes each
+ * Snapshot file format:
+ *   header: magic(long) | stripes(int) | pad(int) | per stripe: slots(int) | pad(int) | size(long)
+ *   then every stripe's slots, in stripe order
+ *
+ * Keys probe linearly inside their stripe's table, so one stripe lock covers every slot a key
+ * can touch. When live entries plus tombstones pass MAX_LOAD of a stripe, put() rehashes that
+ * stripe alone into a fresh table. The table doubles if the live entries need it; otherwise it
+ * keeps its size and the rehash just drops the tombstones. So, like ConcurrentKVStore, put
+ * never fails for lack of room; capacity is only the initial sizing.
+ *
+ * snapshot() copies the tables into a file; restore() memory-maps that file and uses it as
+ * the live tables, so a warm restart costs an mmap rather than a reload. Writes to a restored
+ * store go straight to the mapped file. A stripe that later has to rehash moves into memory,
+ * so flush() forces the file while every stripe is still on it and rewrites it with a
+ * snapshot once one has moved.
+ */
+public class OffHeapKVStore implements AutoCloseable {
+    private static final long MAGIC = 0x4F46464845415032L; // "OFFHEAP2"
+    private static final long SLOT_BYTES = 16;
+    private static final long STATE_OFFSET = 0, KEY_OFFSET = 4, VALUE_OFFSET = 8;
+    private static final int EMPTY = 0, FULL = 1, TOMBSTONE = 2;
+    private static final double MAX_LOAD = 0.75;
+
+    private static final long STRIPES_OFFSET = 8;
+    private static final long STRIPE_HEADERS_OFFSET = 16;
+    private static final long STRIPE_HEADER_BYTES = 16;
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        // all guarded by lock
+        MemorySegment table;
+        Arena arena; // owns table; null while table is a slice of the restored file
+        int slots;
+        int used; // FULL + TOMBSTONE slots
+        long size;
+    }
+
+    private final Stripe[] stripes;
+    private final Path file; // the restored file, or null
+    private final Arena fileArena; // maps file, or null
+    private final MemorySegment fileHeader; // header of the mapped file, or null
+    private volatile boolean detached; // some stripe of a restored store left the file
+
+    public OffHeapKVStore(int capacity, int stripes) {
+        if (capacity <= 0 || stripes <= 0) throw new IllegalArgumentException("capacity and stripes must be > 0");
+        int slots = Math.max(1, (int) Math.ceil((capacity + stripes - 1) / stripes / MAX_LOAD));
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            Stripe s = new Stripe();
+            s.arena = Arena.ofShared();
+            s.table = s.arena.allocate(SLOT_BYTES * slots, 16); // zero-filled = all EMPTY
+            s.slots = slots;
+            this.stripes[i] = s;
+        }
+        this.file = null;
+        this.fileArena = null;
+        this.fileHeader = null;
+    }
+
+    private OffHeapKVStore(Path file, Arena fileArena, MemorySegment fileHeader, Stripe[] stripes) {
+        this.stripes = stripes;
+        this.file = file;
+        this.fileArena = fileArena;
+        this.fileHeader = fileHeader;
+    }
+
+    private static long headerBytes(int stripes) {
+        return STRIPE_HEADERS_OFFSET + STRIPE_HEADER_BYTES * stripes;
+    }
+
+    private int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    }
+
+    private Stripe stripeFor(int h) {
+        return stripes[h % stripes.length];
+    }
+
+    private int homeSlot(Stripe s, int h) {
+        return (h / stripes.length) % s.slots;
+    }
+
+    /** Put or update value for key. */
+    public void put(int key, int value) {
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        s.lock.lock();
+        try {
+            long reuse = -1;
+            int slot = homeSlot(s, h);
+            for (int probes = 0; probes < s.slots; probes++) {
+                long addr = SLOT_BYTES * slot;
+                int state = s.table.get(ValueLayout.JAVA_INT, addr + STATE_OFFSET);
+                if (state == EMPTY) {
+                    if (reuse < 0) reuse = addr;
+                    break;
+                }
+                if (state == TOMBSTONE) {
+                    if (reuse < 0) reuse = addr;
+                } else if (s.table.get(ValueLayout.JAVA_INT, addr + KEY_OFFSET) == key) {
+                    s.table.set(ValueLayout.JAVA_INT, addr + VALUE_OFFSET, value); // update
+                    return;
+                }
+                slot = (slot + 1) % s.slots;
+            }
+            boolean claimsEmpty = reuse < 0 || s.table.get(ValueLayout.JAVA_INT, reuse + STATE_OFFSET) == EMPTY;
+            if (claimsEmpty && s.used + 1 > s.slots * MAX_LOAD) {
+                rehash(s);
+                reuse = emptySlot(s, h);
+            } else if (claimsEmpty) {
+                s.used++;
+            }
+            s.table.set(ValueLayout.JAVA_INT, reuse + KEY_OFFSET, key);
+            s.table.set(ValueLayout.JAVA_INT, reuse + VALUE_OFFSET, value);
+            s.table.set(ValueLayout.JAVA_INT, reuse + STATE_OFFSET, FULL);
+            s.size++;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Move s's live entries into a fresh table with room for one more, doubling only if they
+     * need it; tombstones are dropped either way. Caller holds s.lock.
+     */
+    private void rehash(Stripe s) {
+        int slots = s.slots;
+        while (s.size + 1 > slots * MAX_LOAD / 2) slots *= 2;
+        Arena arena = Arena.ofShared();
+        MemorySegment table = arena.allocate(SLOT_BYTES * slots, 16);
+        MemorySegment old = s.table;
+        Arena oldArena = s.arena;
+        s.table = table;
+        s.arena = arena;
+        s.slots = slots;
+        s.used = 0;
+        for (long addr = 0; addr < old.byteSize(); addr += SLOT_BYTES) {
+            if (old.get(ValueLayout.JAVA_INT, addr + STATE_OFFSET) != FULL) continue;
+            int key = old.get(ValueLayout.JAVA_INT, addr + KEY_OFFSET);
+            long to = emptySlot(s, hash(key));
+            table.set(ValueLayout.JAVA_INT, to + KEY_OFFSET, key);
+            table.set(ValueLayout.JAVA_INT, to + VALUE_OFFSET, old.get(ValueLayout.JAVA_INT, addr + VALUE_OFFSET));
+            table.set(ValueLayout.JAVA_INT, to + STATE_OFFSET, FULL);
+        }
+        if (oldArena != null) oldArena.close();
+        else detached = true; // old was a slice of the restored file
+    }
+
+    /** Claim the first EMPTY slot on h's probe path. Caller holds s.lock and knows one exists. */
+    private long emptySlot(Stripe s, int h) {
+        int slot = homeSlot(s, h);
+        while (s.table.get(ValueLayout.JAVA_INT, SLOT_BYTES * slot + STATE_OFFSET) != EMPTY) {
+            slot = (slot + 1) % s.slots;
+        }
+        s.used++;
+        return SLOT_BYTES * slot;
+    }
+
+    /** Get value for key, or null if not present. */
+    public Integer get(int key) {
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        s.lock.lock();
+        try {
+            long addr = find(s, h, key);
+            return addr < 0 ? null : s.table.get(ValueLayout.JAVA_INT, addr + VALUE_OFFSET);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** Remove key, return true if removed. */
+    public boolean remove(int key) {
+        int h = hash(key);
+        Stripe s = stripeFor(h);
+        s.lock.lock();
+        try {
+            long addr = find(s, h, key);
+            if (addr < 0) return false;
+            s.table.set(ValueLayout.JAVA_INT, addr + STATE_OFFSET, TOMBSTONE);
+            s.size--;
+            return true;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** Offset of key's slot in s.table, or -1. Caller holds s.lock. */
+    private long find(Stripe s, int h, int key) {
+        int slot = homeSlot(s, h);
+        for (int probes = 0; probes < s.slots; probes++) {
+            long addr = SLOT_BYTES * slot;
+            int state = s.table.get(ValueLayout.JAVA_INT, addr + STATE_OFFSET);
+            if (state == EMPTY) return -1;
+            if (state == FULL && s.table.get(ValueLayout.JAVA_INT, addr + KEY_OFFSET) == key) return addr;
+            slot = (slot + 1) % s.slots;
+        }
+        return -1;
+    }
+
+    public long size() {
+        long total = 0;
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try {
+                total += s.size;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Write a consistent copy of the store to file, via a temp file of its own and an atomic
+     * rename, so concurrent snapshots never share a half-written file; the last rename wins.
+     */
+    public void snapshot(Path file) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            writeSnapshot(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void writeSnapshot(Path tmp) throws IOException {
+        for (Stripe s : stripes) s.lock.lock();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             Arena mapArena = Arena.ofConfined()) {
+            long length = headerBytes(stripes.length);
+            for (Stripe s : stripes) length += s.table.byteSize();
+            MemorySegment out = ch.map(FileChannel.MapMode.READ_WRITE, 0, length, mapArena);
+            out.set(ValueLayout.JAVA_LONG, 0, MAGIC);
+            out.set(ValueLayout.JAVA_INT, STRIPES_OFFSET, stripes.length);
+            long at = headerBytes(stripes.length);
+            for (int i = 0; i < stripes.length; i++) {
+                Stripe s = stripes[i];
+                long header = STRIPE_HEADERS_OFFSET + STRIPE_HEADER_BYTES * i;
+                out.set(ValueLayout.JAVA_INT, header, s.slots);
+                out.set(ValueLayout.JAVA_LONG, header + 8, s.size);
+                MemorySegment.copy(s.table, 0, out, at, s.table.byteSize());
+                at += s.table.byteSize();
+            }
+            out.force();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) stripes[i].lock.unlock();
+        }
+    }
+
+    /** Map a snapshot file and use it as the backing tables of a new store. */
+    public static OffHeapKVStore restore(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = ch.size();
+            if (length < STRIPE_HEADERS_OFFSET) throw new IOException("snapshot too short: " + file);
+            MemorySegment seg = ch.map(FileChannel.MapMode.READ_WRITE, 0, length, arena);
+            if (seg.get(ValueLayout.JAVA_LONG, 0) != MAGIC) throw new IOException("not a snapshot: " + file);
+            int count = seg.get(ValueLayout.JAVA_INT, STRIPES_OFFSET);
+            if (count <= 0 || headerBytes(count) > length) throw new IOException("corrupt snapshot header: " + file);
+            Stripe[] stripes = new Stripe[count];
+            long at = headerBytes(count);
+            for (int i = 0; i < count; i++) {
+                long header = STRIPE_HEADERS_OFFSET + STRIPE_HEADER_BYTES * i;
+                Stripe s = new Stripe();
+                s.slots = seg.get(ValueLayout.JAVA_INT, header);
+                s.size = seg.get(ValueLayout.JAVA_LONG, header + 8);
+                long bytes = SLOT_BYTES * s.slots;
+                if (s.slots <= 0 || s.size < 0 || s.size > s.slots || at + bytes > length) {
+                    throw new IOException("corrupt snapshot header: " + file);
+                }
+                s.table = seg.asSlice(at, bytes);
+                at += bytes;
+                for (long addr = 0; addr < bytes; addr += SLOT_BYTES) {
+                    if (s.table.get(ValueLayout.JAVA_INT, addr + STATE_OFFSET) != EMPTY) s.used++;
+                }
+                stripes[i] = s;
+            }
+            if (at != length) throw new IOException("corrupt snapshot header: " + file);
+            return new OffHeapKVStore(file, arena, seg.asSlice(0, headerBytes(count)), stripes);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * For a restored (file-mapped) store, make the file current: force pending writes while
+     * every stripe is still on it, or rewrite it with a snapshot once one has moved off.
+     */
+    public void flush() throws IOException {
+        if (fileArena == null) return;
+        if (detached) {
+            snapshot(file);
+            return;
+        }
+        for (Stripe s : stripes) s.lock.lock();
+        try {
+            if (detached) {
+                snapshot(file); // locks are reentrant
+                return;
+            }
+            // sizes live on the heap; bring the file's copies up to date before forcing
+            for (int i = 0; i < stripes.length; i++) {
+                fileHeader.set(ValueLayout.JAVA_LONG, STRIPE_HEADERS_OFFSET + STRIPE_HEADER_BYTES * i + 8, stripes[i].size);
+            }
+            fileHeader.force();
+            for (Stripe s : stripes) s.table.force();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) stripes[i].lock.unlock();
+        }
+    }
+
+    /** Release the off-heap memory (or unmap the file). The store is unusable afterwards. */
+    @Override
+    public void close() {
+        for (Stripe s : stripes) {
+            if (s.arena != null) s.arena.close();
+        }
+        if (fileArena != null) fileArena.close();
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("offheap-kv", ".snap");
+        // sized for 1024 entries; the stripes grow to hold 10000
+        try (OffHeapKVStore kv = new OffHeapKVStore(1 << 10, 16)) {
+            Runnable writer = () -> {
+                for (int i = 0; i < 10000; i++) {
+                    kv.put(i, i * 10);
+                }
+            };
+
+            Runnable reader = () -> {
+                for (int i = 0; i < 10000; i++) {
+                    kv.get(i);
+                }
+            };
+
+            Thread t1 = new Thread(writer);
+            Thread t2 = new Thread(reader);
+            Thread t3 = new Thread(writer);
+            t1.start(); t2.start(); t3.start();
+            t1.join(); t2.join(); t3.join();
+
+            kv.remove(7);
+            System.out.println("size=" + kv.size() + " value for 42 = " + kv.get(42));
+            kv.snapshot(file);
+        }
+
+        long start = System.nanoTime();
+        try (OffHeapKVStore restored = OffHeapKVStore.restore(file)) {
+            long micros = (System.nanoTime() - start) / 1000;
+            System.out.println("restored in " + micros + "us: size=" + restored.size()
+                    + " value for 42 = " + restored.get(42) + " value for 7 = " + restored.get(7));
+            // remove/re-add churn only leaves tombstones, which rehashing compacts away
+            for (int round = 0; round < 100; round++) {
+                for (int i = 20000; i < 21000; i++) restored.put(i + round * 1000, i);
+                for (int i = 20000; i < 21000; i++) restored.remove(i + round * 1000);
+            }
+            restored.flush();
+            System.out.println("after churn: size=" + restored.size());
+        }
+        try (OffHeapKVStore reread = OffHeapKVStore.restore(file)) {
+            System.out.println("re-restored: size=" + reread.size() + " value for 42 = " + reread.get(42));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
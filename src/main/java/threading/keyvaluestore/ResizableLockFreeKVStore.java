@@ -4,7 +4,21 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Lock-free resizable key-value store (integer keys & values).
+ *
+ * Resizing is cooperative, in the style of ConcurrentHashMap's transfer:
+ * - A resize allocates the next table and hangs it off the old one.
+ * - Buckets are migrated in strides; any writer that hits a migrating table claims
+ *   a stride and helps, so no single thread copies the whole table.
+ * - A migrated bucket is replaced by a ForwardingNode; readers and writers that see it
+ *   continue in the next table. The CAS that installs the forwarding node fails if a
+ *   writer changed the bucket meanwhile, so concurrent puts are never lost.
+ */
 public class ResizableLockFreeKVStore {
+    private static final int MIN_TRANSFER_STRIDE = 16;
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+
     private static class Node {
         final int key;
         final int value;
@@ -16,18 +30,34 @@ public class ResizableLockFreeKVStore {
         }
     }
 
+    /** Marker left in a migrated bucket of the old table. */
+    private static final class ForwardingNode extends Node {
+        final Table nextTable;
+        ForwardingNode(Table nextTable) {
+            super(0, 0, null);
+            this.nextTable = nextTable;
+        }
+    }
+
     private static class Table {
         final AtomicReferenceArray<Node> buckets;
         final int capacity;
-        final AtomicInteger size = new AtomicInteger(0); // approximate
+        // set once when a resize of this table starts
+        final AtomicReference<Table> nextTable = new AtomicReference<>();
+        // next bucket range to hand out (counts down to 0)
+        final AtomicInteger transferIndex;
+        // number of buckets fully migrated
+        final AtomicInteger transferred = new AtomicInteger(0);
 
         Table(int capacity) {
             this.capacity = capacity;
             this.buckets = new AtomicReferenceArray<>(capacity);
+            this.transferIndex = new AtomicInteger(capacity);
         }
     }
 
     private final AtomicReference<Table> tableRef;
+    private final AtomicInteger size = new AtomicInteger(0); // approximate during resize
     private final float loadFactor;
 
     public ResizableLockFreeKVStore(int initCapacity, float loadFactor) {
@@ -39,44 +69,63 @@ public class ResizableLockFreeKVStore {
         return Integer.hashCode(key) & 0x7fffffff;
     }
 
-    /** Get value for key (check current table, fallback to old during resize). */
+    /** Get value for key (follows forwarding nodes into the table being resized to). */
     public Integer get(int key) {
         Table table = tableRef.get();
-        int idx = hash(key) % table.capacity;
-        Node n = table.buckets.get(idx);
-        while (n != null) {
-            if (n.key == key) return n.value;
-            n = n.next;
+        while (true) {
+            int idx = hash(key) % table.capacity;
+            Node n = table.buckets.get(idx);
+            if (n instanceof ForwardingNode fwd) {
+                table = fwd.nextTable;
+                continue;
+            }
+            while (n != null) {
+                if (n.key == key) return n.value;
+                n = n.next;
+            }
+            return null;
         }
-        return null;
     }
 
     /** Put or update value for key. */
     public void put(int key, int value) {
+        Table table = tableRef.get();
         while (true) {
-            Table table = tableRef.get();
             int idx = hash(key) % table.capacity;
             Node head = table.buckets.get(idx);
 
+            if (head instanceof ForwardingNode fwd) {
+                // bucket already migrated: help a bit, then retry in the next table
+                helpTransfer(table, fwd.nextTable);
+                table = fwd.nextTable;
+                continue;
+            }
+
             // check if key already exists
+            boolean found = false;
             for (Node n = head; n != null; n = n.next) {
                 if (n.key == key) {
-                    // replace by inserting new head (immutability)
-                    Node newHead = new Node(key, value, removeFromChain(head, key));
-                    if (table.buckets.compareAndSet(idx, head, newHead)) {
-                        return;
-                    } else {
-                        break; // retry
-                    }
+                    found = true;
+                    break;
                 }
             }
 
+            if (found) {
+                // replace by inserting new head (immutability)
+                Node newHead = new Node(key, value, removeFromChain(head, key));
+                if (table.buckets.compareAndSet(idx, head, newHead)) {
+                    return;
+                }
+                continue; // retry
+            }
+
             // new key → try CAS insert at head
             Node newHead = new Node(key, value, head);
             if (table.buckets.compareAndSet(idx, head, newHead)) {
-                int sz = table.size.incrementAndGet();
-                if (sz > table.capacity * loadFactor) {
-                    resize(table);
+                int sz = size.incrementAndGet();
+                Table current = tableRef.get();
+                if (sz > current.capacity * loadFactor) {
+                    resize(current);
                 }
                 return;
             }
@@ -86,24 +135,34 @@ public class ResizableLockFreeKVStore {
 
     /** Remove key (CAS-based). Returns true if removed. */
     public boolean remove(int key) {
+        Table table = tableRef.get();
         while (true) {
-            Table table = tableRef.get();
             int idx = hash(key) % table.capacity;
             Node head = table.buckets.get(idx);
             if (head == null) return false;
 
+            if (head instanceof ForwardingNode fwd) {
+                helpTransfer(table, fwd.nextTable);
+                table = fwd.nextTable;
+                continue;
+            }
+
             Node newHead = removeFromChain(head, key);
             if (newHead == head) {
                 return false; // not found
             }
             if (table.buckets.compareAndSet(idx, head, newHead)) {
-                table.size.decrementAndGet();
+                size.decrementAndGet();
                 return true;
             }
             // retry
         }
     }
 
+    public int size() {
+        return size.get();
+    }
+
     /** Utility: rebuild chain without given key. */
     private Node removeFromChain(Node head, int key) {
         if (head == null) return null;
@@ -113,29 +172,65 @@ public class ResizableLockFreeKVStore {
         return new Node(head.key, head.value, newNext);
     }
 
-    /** Resize by allocating a bigger table and migrating entries. */
+    /** Start a resize of oldTable (if nobody has yet) and help migrate it. */
     private void resize(Table oldTable) {
-        // Optimistic: someone else might have resized already
-        Table current = tableRef.get();
-        if (current != oldTable) return;
+        Table next = oldTable.nextTable.get();
+        if (next == null) {
+            Table candidate = new Table(oldTable.capacity * 2);
+            if (oldTable.nextTable.compareAndSet(null, candidate)) {
+                next = candidate;
+            } else {
+                next = oldTable.nextTable.get();
+            }
+        }
+        helpTransfer(oldTable, next);
+    }
 
-        int newCap = oldTable.capacity * 2;
-        Table newTable = new Table(newCap);
+    /**
+     * Claim one stride of buckets from oldTable and migrate it into newTable.
+     * The thread that completes the last bucket publishes newTable.
+     */
+    private void helpTransfer(Table oldTable, Table newTable) {
+        int stride = Math.max(MIN_TRANSFER_STRIDE, oldTable.capacity / (NCPU * 8));
+        while (true) {
+            int hi = oldTable.transferIndex.get();
+            if (hi <= 0) return; // every range has been handed out
+            int lo = Math.max(0, hi - stride);
+            if (!oldTable.transferIndex.compareAndSet(hi, lo)) continue;
 
-        // migrate entries
-        for (int i = 0; i < oldTable.capacity; i++) {
-            Node n = oldTable.buckets.get(i);
-            while (n != null) {
-                int idx = hash(n.key) % newCap;
-                Node head = newTable.buckets.get(idx);
-                newTable.buckets.set(idx, new Node(n.key, n.value, head));
-                newTable.size.incrementAndGet();
-                n = n.next;
+            for (int i = lo; i < hi; i++) {
+                transferBucket(oldTable, newTable, i);
+            }
+            if (oldTable.transferred.addAndGet(hi - lo) == oldTable.capacity) {
+                tableRef.compareAndSet(oldTable, newTable);
             }
+            return;
         }
+    }
 
-        // publish new table
-        tableRef.compareAndSet(oldTable, newTable);
+    /**
+     * Migrate one bucket. Since newCap = 2 * oldCap, keys in old bucket i land in
+     * new bucket i or i + oldCap, which only this bucket feeds; so the new buckets can be
+     * written before the forwarding node is installed, and rewritten if that CAS fails.
+     */
+    private void transferBucket(Table oldTable, Table newTable, int i) {
+        ForwardingNode fwd = new ForwardingNode(newTable);
+        int oldCap = oldTable.capacity;
+        int newCap = newTable.capacity;
+        while (true) {
+            Node head = oldTable.buckets.get(i);
+            Node lo = null, hi = null;
+            for (Node n = head; n != null; n = n.next) {
+                if (hash(n.key) % newCap == i) lo = new Node(n.key, n.value, lo);
+                else hi = new Node(n.key, n.value, hi);
+            }
+            newTable.buckets.set(i, lo);
+            newTable.buckets.set(i + oldCap, hi);
+            if (oldTable.buckets.compareAndSet(i, head, fwd)) {
+                return;
+            }
+            // a writer changed the bucket under us; rebuild from the new head
+        }
     }
 
     // ---------------- DEMO ----------------
@@ -161,9 +256,14 @@ public class ResizableLockFreeKVStore {
         t1.start(); t2.start(); t3.start();
         t1.join(); t2.join(); t3.join();
 
+        int lost = 0;
+        for (int i = 0; i < 100000; i++) {
+            Integer v = kv.get(i);
+            if (v == null || v != i * 2) lost++;
+        }
+        System.out.println("size=" + kv.size() + " lost writes=" + lost);
         System.out.println("Value for 42 = " + kv.get(42));
         kv.remove(42);
         System.out.println("After remove, value for 42 = " + kv.get(42));
     }
 }
-
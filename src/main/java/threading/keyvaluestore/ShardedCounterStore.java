@@ -0,0 +1,95 @@
+package threading.keyvaluestore;
+
+/**
+ * Contended counters keyed by int, sharded LongAdder-style.
+ *
+ * A hot key hammered by many threads makes every merge() on a single store retry its CAS.
+ * Here each thread adds into one of several LockFreeKVStore shards, picked by a per-thread
+ * probe, so threads rarely touch the same cell. Reads pay instead: sum() adds the
+ * key's cell from every shard, and is not an atomic snapshot under concurrent adds.
+ * Each shard cell is an int; sums are returned as long.
+ */
+public class ShardedCounterStore {
+    private final LockFreeKVStore[] shards;
+    private final int mask;
+
+    public ShardedCounterStore(int capacityPerShard) {
+        this(capacityPerShard, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedCounterStore(int capacityPerShard, int shardCount) {
+        int s = 1;
+        while (s < shardCount) s <<= 1;
+        this.shards = new LockFreeKVStore[s];
+        this.mask = s - 1;
+        for (int i = 0; i < s; i++) {
+            shards[i] = new LockFreeKVStore(capacityPerShard);
+        }
+    }
+
+    /** Per-thread shard choice: a scrambled thread id, stable for the thread's lifetime. */
+    private static int probe() {
+        int h = (int) Thread.currentThread().threadId() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Add delta to key's counter. */
+    public void add(int key, int delta) {
+        shards[probe() & mask].merge(key, delta, Integer::sum);
+    }
+
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    /** Current total for key (0 if never added to). */
+    public long sum(int key) {
+        long total = 0;
+        for (LockFreeKVStore shard : shards) {
+            Integer v = shard.get(key);
+            if (v != null) total += v;
+        }
+        return total;
+    }
+
+    /** Drop key's counter from every shard. */
+    public void reset(int key) {
+        for (LockFreeKVStore shard : shards) {
+            shard.remove(key);
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws InterruptedException {
+        ShardedCounterStore sharded = new ShardedCounterStore(1024);
+        LockFreeKVStore single = new LockFreeKVStore(1024);
+        final int THREADS = 8;
+        final int OPS = 1_000_000;
+
+        for (int round = 0; round < 2; round++) {
+            boolean useSharded = round == 0;
+            Thread[] threads = new Thread[THREADS];
+            long start = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < OPS; i++) {
+                        if (useSharded) sharded.increment(7);
+                        else single.merge(7, 1, Integer::sum);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread th : threads) th.join();
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            long total = useSharded ? sharded.sum(7) : single.get(7);
+            System.out.println((useSharded ? "sharded" : "single ") + " counter=" + total + " in " + ms + "ms");
+        }
+
+        ConcurrentKVStore kv = new ConcurrentKVStore(1024, 16);
+        kv.putIfAbsent(1, 10);
+        kv.putIfAbsent(1, 20);
+        kv.merge(1, 5, Math::max);
+        kv.compute(2, (k, v) -> v + k);
+        System.out.println("kv 1 = " + kv.get(1) + ", kv 2 = " + kv.get(2));
+    }
+}
@@ -0,0 +1,288 @@
+package threading.keyvaluestore;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+/**
+ * Lock-free ordered key-value store (integer keys & values): a skip list in the style of
+ * Herlihy & Shavit's LockFreeSkipList, with the put/get/remove contract of the other stores.
+ *
+ * - Every next pointer is an AtomicMarkableReference; the mark means "this node is being
+ *   removed at that level". remove() marks top-down, and the level-0 mark is the
+ *   linearization point. Traversals in find() snip marked nodes out.
+ * - get/floorKey/ceilingKey/scan/iterator never write. They skip marked nodes and are
+ *   weakly consistent: they may or may not see updates that race with them.
+ * - Updating an existing key overwrites its volatile value in place.
+ */
+public class SkipListKVStore implements Iterable<SkipListKVStore.Entry> {
+    private static final int MAX_LEVEL = 32;
+
+    public record Entry(int key, int value) {}
+
+    private static final class Node {
+        final int key;
+        volatile int value;
+        final AtomicMarkableReference<Node>[] next;
+        final int topLevel;
+
+        Node(int key, int value, int topLevel) {
+            this.key = key;
+            this.value = value;
+            this.topLevel = topLevel;
+            @SuppressWarnings("unchecked")
+            AtomicMarkableReference<Node>[] next = (AtomicMarkableReference<Node>[]) new AtomicMarkableReference<?>[topLevel + 1];
+            this.next = next;
+            for (int i = 0; i <= topLevel; i++) {
+                next[i] = new AtomicMarkableReference<>(null, false);
+            }
+        }
+    }
+
+    // head sorts before every key; null plays the +infinity tail
+    private final Node head = new Node(0, 0, MAX_LEVEL - 1);
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    private static int randomLevel() {
+        // geometric with p = 1/2
+        int level = Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << (MAX_LEVEL - 1)));
+        return Math.min(level, MAX_LEVEL - 1);
+    }
+
+    /**
+     * Fill preds/succs with the nodes around key at every level, unlinking marked nodes on
+     * the way. Returns true if an unmarked node with key sits at level 0.
+     */
+    private boolean find(int key, Node[] preds, Node[] succs) {
+        boolean[] marked = {false};
+        retry:
+        while (true) {
+            Node pred = head;
+            Node curr = null;
+            for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+                curr = pred.next[level].getReference();
+                while (curr != null) {
+                    Node succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) continue retry;
+                        curr = succ;
+                        if (curr == null) break;
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (curr != null && curr.key < key) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return curr != null && curr.key == key;
+        }
+    }
+
+    /** Put or update value for key. */
+    public void put(int key, int value) {
+        int topLevel = randomLevel();
+        Node[] preds = new Node[MAX_LEVEL];
+        Node[] succs = new Node[MAX_LEVEL];
+        while (true) {
+            if (find(key, preds, succs)) {
+                Node existing = succs[0];
+                if (!existing.next[0].isMarked()) {
+                    existing.value = value; // update
+                    return;
+                }
+                continue; // being removed; retry once it is unlinked
+            }
+            Node node = new Node(key, value, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next[level].set(succs[level], false);
+            }
+            // linking level 0 makes the key visible
+            if (!preds[0].next[0].compareAndSet(succs[0], node, false, false)) continue;
+            size.incrementAndGet();
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    Node succ = succs[level];
+                    AtomicMarkableReference<Node> ref = node.next[level];
+                    Node current = ref.getReference();
+                    // a concurrent remove marked us: stop building the tower
+                    if (ref.isMarked()) return;
+                    if (current != succ && !ref.compareAndSet(current, succ, false, false)) return;
+                    if (preds[level].next[level].compareAndSet(succ, node, false, false)) break;
+                    find(key, preds, succs);
+                }
+            }
+            return;
+        }
+    }
+
+    /** Get value for key, or null if not present. */
+    public Integer get(int key) {
+        Node n = lastBelow(key).next[0].getReference();
+        while (n != null && n.key < key) n = n.next[0].getReference();
+        if (n == null || n.key != key || n.next[0].isMarked()) return null;
+        return n.value;
+    }
+
+    /** Remove key, return true if removed. */
+    public boolean remove(int key) {
+        Node[] preds = new Node[MAX_LEVEL];
+        Node[] succs = new Node[MAX_LEVEL];
+        if (!find(key, preds, succs)) return false;
+        Node victim = succs[0];
+        for (int level = victim.topLevel; level >= 1; level--) {
+            boolean[] marked = {false};
+            Node succ = victim.next[level].get(marked);
+            while (!marked[0]) {
+                victim.next[level].compareAndSet(succ, succ, false, true);
+                succ = victim.next[level].get(marked);
+            }
+        }
+        boolean[] marked = {false};
+        Node succ = victim.next[0].get(marked);
+        while (true) {
+            if (marked[0]) return false; // another thread removed it first
+            if (victim.next[0].compareAndSet(succ, succ, false, true)) {
+                size.decrementAndGet();
+                find(key, preds, succs); // physically unlink
+                return true;
+            }
+            succ = victim.next[0].get(marked);
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /** Rightmost node (possibly head) whose key is below key, found without helping removals. */
+    private Node lastBelow(int key) {
+        Node pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node curr = pred.next[level].getReference();
+            while (curr != null && curr.key < key) {
+                pred = curr;
+                curr = curr.next[level].getReference();
+            }
+        }
+        return pred;
+    }
+
+    /** First live node with key >= key, or null. */
+    private Node firstAtOrAbove(int key) {
+        Node n = lastBelow(key).next[0].getReference();
+        while (n != null && (n.key < key || n.next[0].isMarked())) {
+            n = n.next[0].getReference();
+        }
+        return n;
+    }
+
+    /** Smallest key >= key, or null. */
+    public Integer ceilingKey(int key) {
+        Node n = firstAtOrAbove(key);
+        return n == null ? null : n.key;
+    }
+
+    /** Largest key <= key, or null. */
+    public Integer floorKey(int key) {
+        while (true) {
+            // last node <= key: the node just before the first one above key
+            Node candidate = key == Integer.MAX_VALUE ? lastNode() : lastBelow(key + 1);
+            if (candidate == head) return null;
+            if (!candidate.next[0].isMarked()) return candidate.key;
+            // candidate is being removed and nothing live follows it up to key
+            if (candidate.key == Integer.MIN_VALUE) return null;
+            key = candidate.key - 1;
+        }
+    }
+
+    private Node lastNode() {
+        Node pred = head;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            Node curr = pred.next[level].getReference();
+            while (curr != null) {
+                pred = curr;
+                curr = curr.next[level].getReference();
+            }
+        }
+        return pred;
+    }
+
+    /** Visit live entries with from <= key <= to in ascending key order. */
+    public void scan(int from, int to, IntIntConsumer consumer) {
+        for (Node n = firstAtOrAbove(from); n != null && n.key <= to; n = n.next[0].getReference()) {
+            if (!n.next[0].isMarked()) consumer.accept(n.key, n.value);
+        }
+    }
+
+    /** Weakly consistent iterator in ascending key order; never throws ConcurrentModificationException. */
+    @Override
+    public Iterator<Entry> iterator() {
+        return new Iterator<>() {
+            private Node next = advance(head);
+
+            private Node advance(Node from) {
+                Node n = from.next[0].getReference();
+                while (n != null && n.next[0].isMarked()) n = n.next[0].getReference();
+                return n;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (next == null) throw new NoSuchElementException();
+                Node n = next;
+                next = advance(n);
+                return new Entry(n.key, n.value);
+            }
+        };
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws InterruptedException {
+        SkipListKVStore kv = new SkipListKVStore();
+
+        Runnable writer = () -> {
+            for (int i = 0; i < 10000; i++) {
+                kv.put(i, i * 10);
+            }
+        };
+
+        Runnable remover = () -> {
+            for (int i = 0; i < 10000; i += 3) {
+                kv.remove(i);
+            }
+        };
+
+        Thread t1 = new Thread(writer);
+        Thread t2 = new Thread(writer);
+        Thread t3 = new Thread(remover);
+        t1.start(); t2.start(); t3.start();
+        t1.join(); t2.join(); t3.join();
+
+        System.out.println("Value for 42 = " + kv.get(42) + ", size = " + kv.size());
+        for (int i = 0; i < 10000; i += 3) kv.remove(i);
+        System.out.println("floor(9) = " + kv.floorKey(9) + ", ceiling(9) = " + kv.ceilingKey(9));
+        StringBuilder sb = new StringBuilder();
+        kv.scan(100, 110, (k, v) -> sb.append(k).append('=').append(v).append(' '));
+        System.out.println("scan [100, 110]: " + sb.toString().trim());
+
+        int prev = Integer.MIN_VALUE, count = 0;
+        boolean ordered = true;
+        for (Entry e : kv) {
+            if (count++ > 0 && e.key() <= prev) ordered = false;
+            prev = e.key();
+        }
+        System.out.println("iterated " + count + " entries, ordered = " + ordered + ", size = " + kv.size());
+    }
+}
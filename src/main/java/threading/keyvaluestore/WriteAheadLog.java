@@ -0,0 +1,247 @@
+package threading.keyvaluestore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, group-committed log of int-key mutations.
+ *
+ * Record: crc32c(int) | op(byte) | key(int) | value(int); the CRC covers op, key and value.
+ *
+ * Group commit: append() only encodes into an in-memory buffer and returns a sequence
+ * number. The first thread that needs the buffer on disk becomes the leader, swaps in the
+ * spare buffer, writes (and fsyncs) the whole batch outside the lock, and wakes every
+ * waiter whose record went out with it. Many writers thus share one fsync.
+ *
+ * A failed write or fsync leaves the file in an unknown state, so the log fails stop: the
+ * leader and every writer waiting on that batch get the IOException, and every later
+ * append(), sync() or flush throws too. writtenSeq never moves past the failed batch. Only
+ * truncate() after a checkpoint that covers the store clears the failure.
+ *
+ * FsyncPolicy:
+ * - EVERY_WRITE: sync(seq) blocks until the record is fsynced.
+ * - INTERVAL:    a background thread writes and fsyncs every intervalMs; sync() is a no-op.
+ * - NEVER:       a background thread writes every intervalMs, leaving fsync to the OS.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    public enum FsyncPolicy { EVERY_WRITE, INTERVAL, NEVER }
+
+    public static final byte OP_PUT = 1;
+    public static final byte OP_REMOVE = 2;
+
+    private static final int RECORD_BYTES = 13;
+    private static final int PAYLOAD_BYTES = 9;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    // above this, an appender flushes inline instead of waiting for the timer
+    private static final int MAX_PENDING_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final ScheduledExecutorService flusher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private long appendedSeq;
+    private long writtenSeq;
+    private boolean flushing;
+    private IOException failure; // sticky: set by the first failed batch
+
+    public WriteAheadLog(Path file, FsyncPolicy policy, long intervalMs) throws IOException {
+        this.policy = policy;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        if (policy == FsyncPolicy.EVERY_WRITE) {
+            this.flusher = null;
+        } else {
+            if (intervalMs <= 0) throw new IllegalArgumentException("intervalMs must be > 0");
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Buffer one record; returns its sequence number for sync(). */
+    public long append(byte op, int key, int value) throws IOException {
+        long seq;
+        boolean overfull;
+        lock.lock();
+        try {
+            checkFailed();
+            if (pending.remaining() < RECORD_BYTES) {
+                ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                bigger.put(pending);
+                pending = bigger;
+            }
+            int start = pending.position();
+            pending.position(start + 4);
+            pending.put(op).putInt(key).putInt(value);
+            crc.reset();
+            crc.update(pending.array(), start + 4, PAYLOAD_BYTES);
+            pending.putInt(start, (int) crc.getValue());
+            seq = ++appendedSeq;
+            overfull = pending.position() >= MAX_PENDING_BYTES;
+        } finally {
+            lock.unlock();
+        }
+        if (overfull && policy != FsyncPolicy.EVERY_WRITE) {
+            flush(seq, policy == FsyncPolicy.INTERVAL);
+        }
+        return seq;
+    }
+
+    /** Under EVERY_WRITE, block until record seq is fsynced; otherwise return at once. */
+    public void sync(long seq) throws IOException {
+        if (policy == FsyncPolicy.EVERY_WRITE) {
+            flush(seq, true);
+        }
+    }
+
+    /** Write (and optionally fsync) everything up to seq, leading or joining a group commit. */
+    private void flush(long seq, boolean force) throws IOException {
+        lock.lock();
+        try {
+            while (writtenSeq < seq) {
+                checkFailed();
+                if (flushing) {
+                    flushed.awaitUninterruptibly(); // the current leader may cover us
+                    continue;
+                }
+                flushing = true;
+                ByteBuffer batch = pending;
+                pending = spare;
+                spare = null;
+                long target = appendedSeq;
+                IOException error = null;
+                lock.unlock();
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) channel.write(batch);
+                    if (force) channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                    batch.clear();
+                    spare = batch;
+                    flushing = false;
+                    if (error == null) writtenSeq = target;
+                    else failure = error;
+                    flushed.signalAll();
+                }
+                if (error != null) throw error;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Caller holds lock. */
+    private void checkFailed() throws IOException {
+        if (failure != null) throw new IOException("write-ahead log failed earlier; records were lost", failure);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush(lastAppended(), policy == FsyncPolicy.INTERVAL);
+        } catch (IOException e) {
+            System.err.println("wal flush failed: " + e);
+        }
+    }
+
+    private long lastAppended() {
+        lock.lock();
+        try {
+            return appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the whole log after a checkpoint. The caller must make sure no append() runs
+     * concurrently and that every appended record is covered by the checkpoint.
+     */
+    public void truncate() throws IOException {
+        lock.lock();
+        try {
+            while (flushing) flushed.awaitUninterruptibly();
+            pending.clear();
+            channel.truncate(0);
+            channel.force(true);
+            failure = null;
+            writtenSeq = appendedSeq;
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) flusher.shutdownNow();
+        try {
+            flush(lastAppended(), policy != FsyncPolicy.NEVER);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Replay a log into callbacks. Stops at the first torn or corrupt record (a crash
+     * mid-write) and truncates the file there. Returns the number of records replayed.
+     */
+    public static long replay(Path file, IntIntConsumer onPut, IntConsumer onRemove) throws IOException {
+        if (!Files.exists(file)) return 0;
+        long replayed = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_BYTES * 4096);
+            CRC32C check = new CRC32C();
+            long goodBytes = 0;
+            boolean corrupt = false;
+            while (!corrupt && ch.read(buf) > 0) {
+                buf.flip();
+                while (buf.remaining() >= RECORD_BYTES) {
+                    int start = buf.position();
+                    int stored = buf.getInt();
+                    check.reset();
+                    check.update(buf.array(), start + 4, PAYLOAD_BYTES);
+                    byte op = buf.get();
+                    int key = buf.getInt();
+                    int value = buf.getInt();
+                    if ((int) check.getValue() != stored || (op != OP_PUT && op != OP_REMOVE)) {
+                        corrupt = true;
+                        break;
+                    }
+                    if (op == OP_PUT) onPut.accept(key, value);
+                    else onRemove.accept(key);
+                    goodBytes += RECORD_BYTES;
+                    replayed++;
+                }
+                buf.compact();
+            }
+            if (goodBytes < ch.size()) {
+                ch.truncate(goodBytes);
+                ch.force(true);
+            }
+        }
+        return replayed;
+    }
+}
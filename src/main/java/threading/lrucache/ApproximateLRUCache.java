@@ -3,34 +3,62 @@ package threading.lrucache;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Approximate (lock-free-ish) LRU-style cache:
  * - Uses ConcurrentHashMap for storage.
  * - Each node has a monotonic accessSequence (AtomicLong from cache).
  * - On get/put we update the node.accessSeq to a new increasing number.
- * - Eviction (when size > capacity) scans / samples the map and removes the entries
- *   with smallest accessSeq values (approximate LRU).
+ * - Eviction (when size > capacity) samples random entries and removes the one with the
+ *   smallest accessSeq (approximate LRU), Redis-style.
+ *
+ * Eviction, as in Redis' maxmemory-policy allkeys-lru:
+ * - Every entry also sits in a dense array, so sampling means picking random indices. Each
+ *   eviction starts at a fresh random point instead of the map's first bucket.
+ * - Sampled entries go into a small pool, sorted by accessSeq, that lives across evictions.
+ *   Old candidates seen by earlier samples stay available, so a few samples per eviction
+ *   get close to true LRU.
+ * - The victim is the oldest pool entry whose accessSeq hasn't changed since it was pooled.
+ *   An entry that was touched since is dropped from the pool instead.
+ * No allocation per put beyond the new node itself.
  *
  * Tradeoffs:
- * - No global lock => high concurrency.
- * - Eviction is approximate and may be more expensive than a perfect O(1) LRU eviction.
- * - map.remove(key, node) ensures we don't remove a node that's been updated concurrently.
+ * - Hits take no lock => high concurrency.
+ * - Inserting a new key takes a short lock to add it to the sample array and evict.
+ * - Eviction is approximate; more samples trade CPU for accuracy.
  */
-public class ApproximateLRUCache<K, V> {
+public class ApproximateLRUCache<K, V> implements Instrumented {
+    private static final int POOL_SIZE = 16;
+
     private final int capacity;
-    private final ConcurrentHashMap<K, Node<V>> map;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
     private final AtomicLong accessCounter = new AtomicLong(1);
+    private final StatsCounter stats = new StatsCounter();
 
     // how many entries to sample when evicting; tune for workload
     private final int evictionSampleSize;
 
-    private static class Node<V> {
-        final V value;
+    // all guarded by evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder contention = new LongAdder();
+    private Node<K, V>[] entries;
+    private int count;
+    private final Node<K, V>[] pool;     // candidates, oldest first
+    private final long[] poolSeqs;       // accessSeq of each candidate when it was pooled
+    private int poolCount;
+
+    private static class Node<K, V> {
+        final K key;
+        volatile V value;
         // monotonic sequence number indicating last access (higher = more recent)
         volatile long accessSeq;
+        // position in entries, -1 once evicted; guarded by evictionLock
+        int index = -1;
 
-        Node(V value, long seq) {
+        Node(K key, V value, long seq) {
+            this.key = key;
             this.value = value;
             this.accessSeq = seq;
         }
@@ -42,106 +70,135 @@ public class ApproximateLRUCache<K, V> {
     }
 
     public ApproximateLRUCache(int capacity) {
-        this(capacity, Math.max(64, capacity / 4)); // default sample size heuristic
+        this(capacity, 10); // Redis uses 5 by default; 10 is within a few percent of true LRU
     }
 
     public ApproximateLRUCache(int capacity, int evictionSampleSize) {
         if (capacity <= 0) throw new IllegalArgumentException("capacity > 0");
+        if (evictionSampleSize <= 0) throw new IllegalArgumentException("evictionSampleSize > 0");
         this.capacity = capacity;
         this.map = new ConcurrentHashMap<>(Math.min(16, capacity));
-        this.evictionSampleSize = Math.max(16, evictionSampleSize);
+        this.evictionSampleSize = evictionSampleSize;
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] entries = (Node<K, V>[]) new Node<?, ?>[Math.min(capacity + 64, 1024)];
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] pool = (Node<K, V>[]) new Node<?, ?>[POOL_SIZE];
+        this.entries = entries;
+        this.pool = pool;
+        this.poolSeqs = new long[POOL_SIZE];
     }
 
     /**
      * Get value for key. If present, update access sequence to mark it as recently used.
      */
     public V get(K key) {
-        Node<V> n = map.get(key);
-        if (n == null) return null;
+        Node<K, V> n = map.get(key);
+        if (n == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
         long seq = accessCounter.incrementAndGet();
         n.touch(seq); // mark recent (racy but fine)
         return n.value;
     }
 
     /**
-     * Put key->value. If key exists replace node (atomically) with a new node that has newer seq.
-     * After insertion we may trigger eviction if size exceeds capacity.
+     * Put key->value. An existing node is updated in place; a new key is added to the map
+     * without a lock and then, under the eviction lock, to the sample array, evicting if
+     * that takes the cache over capacity.
      */
     public void put(K key, V value) {
         long seq = accessCounter.incrementAndGet();
-        // Replace existing node in a loop to update accessSeq atomically via new Node:
-        map.compute(key, (k, old) -> {
-            if (old == null) return new Node<>(value, seq);
-            // if you want to keep object identity (less GC), we could update old.value if it's mutable;
-            // here we create a fresh Node for simplicity and correctness.
-            return new Node<>(value, seq);
-        });
-
-        // opportunistic eviction if we went over capacity
-        if (map.size() > capacity) {
-            evictIfNeeded();
+        Node<K, V> existing = map.get(key);
+        if (existing == null) {
+            Node<K, V> fresh = new Node<>(key, value, seq);
+            existing = map.putIfAbsent(key, fresh);
+            if (existing == null) {
+                admit(fresh);
+                return;
+            }
         }
+        existing.value = value;
+        existing.touch(seq);
     }
 
     public int size() {
         return map.size();
     }
 
-    /**
-     * Evict entries until size <= capacity.
-     * Strategy: sample up to evictionSampleSize entries (or all if fewer),
-     * pick the smallest accessSeq entries and attempt to remove them using compare-remove.
-     */
-    private void evictIfNeeded() {
-        // Quick check - may be stale but good to avoid unnecessary work
-        if (map.size() <= capacity) return;
-
-        // Collect sample keys and their seq numbers.
-        // To avoid iterating whole map in huge caches, sample up to evictionSampleSize entries
-        List<Map.Entry<K, Node<V>>> sample = new ArrayList<>(evictionSampleSize);
-        Iterator<Map.Entry<K, Node<V>>> it = map.entrySet().iterator();
-        int taken = 0;
-        while (it.hasNext() && taken < evictionSampleSize) {
-            Map.Entry<K, Node<V>> e = it.next();
-            sample.add(e);
-            taken++;
-        }
-
-        if (sample.isEmpty()) return;
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot(map.size(), capacity, contention.sum());
+    }
 
-        // Number to remove (optimistic)
-        int toRemove = Math.max(1, map.size() - capacity);
+    private void admit(Node<K, V> node) {
+        StatsCounter.lock(evictionLock, contention);
+        try {
+            if (count == entries.length) entries = Arrays.copyOf(entries, count * 2);
+            node.index = count;
+            entries[count++] = node;
+            while (count > capacity) {
+                populatePool();
+                evictFromPool();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
 
-        // Keep 'toRemove' entries with smallest accessSeq (least recent in sample)
-        sample.sort(Comparator.comparingLong(e -> e.getValue().accessSeq));
+    /** Sample evictionSampleSize random entries into the pool, keeping the POOL_SIZE oldest. */
+    private void populatePool() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int samples = Math.min(evictionSampleSize, count);
+        for (int s = 0; s < samples; s++) {
+            Node<K, V> n = entries[rnd.nextInt(count)];
+            long seq = n.accessSeq;
+            int pos = 0;
+            while (pos < poolCount && poolSeqs[pos] < seq) pos++;
+            if (pos == POOL_SIZE) continue; // younger than every candidate in a full pool
+            if (inPool(n)) continue;
+            int last = poolCount == POOL_SIZE ? POOL_SIZE - 1 : poolCount++; // full: drop the youngest
+            System.arraycopy(pool, pos, pool, pos + 1, last - pos);
+            System.arraycopy(poolSeqs, pos, poolSeqs, pos + 1, last - pos);
+            pool[pos] = n;
+            poolSeqs[pos] = seq;
+        }
+    }
 
-        int removed = 0;
-        for (int i = 0; i < sample.size() && removed < toRemove; i++) {
-            K key = sample.get(i).getKey();
-            Node<V> node = sample.get(i).getValue();
-            // remove only if same node still in map (safe compare-remove)
-            boolean didRemove = map.remove(key, node);
-            if (didRemove) removed++;
+    private boolean inPool(Node<K, V> n) {
+        for (int i = 0; i < poolCount; i++) {
+            if (pool[i] == n) return true;
         }
+        return false;
+    }
 
-        // If we still didn't make enough room, we can repeat with a larger scan or full scan.
-        // Keep it simple: do a second pass scanning more (but bounded) to avoid long pauses.
-        if (map.size() > capacity && removed < toRemove) {
-            // second chance: scan more (this is more expensive, but rare)
-            List<Map.Entry<K, Node<V>>> fullScan = new ArrayList<>(Math.min(map.size(), evictionSampleSize * 4));
-            Iterator<Map.Entry<K, Node<V>>> it2 = map.entrySet().iterator();
-            int cap = evictionSampleSize * 4;
-            int t = 0;
-            while (it2.hasNext() && t < cap) {
-                fullScan.add(it2.next());
-                t++;
-            }
-            fullScan.sort(Comparator.comparingLong(e -> e.getValue().accessSeq));
-            for (int i = 0; i < fullScan.size() && map.size() > capacity; i++) {
-                Map.Entry<K, Node<V>> e = fullScan.get(i);
-                map.remove(e.getKey(), e.getValue());
+    /** Evict the oldest still-valid candidate, discarding candidates evicted or touched since pooling. */
+    private void evictFromPool() {
+        int i = 0;
+        for (; i < poolCount; i++) {
+            Node<K, V> n = pool[i];
+            if (n.index >= 0 && n.accessSeq == poolSeqs[i]) {
+                removeEntry(n);
+                map.remove(n.key, n);
+                stats.recordEviction(EvictionCause.SIZE);
+                i++;
+                break;
             }
         }
+        // drop the candidates we went through, including the victim
+        System.arraycopy(pool, i, pool, 0, poolCount - i);
+        System.arraycopy(poolSeqs, i, poolSeqs, 0, poolCount - i);
+        Arrays.fill(pool, poolCount - i, poolCount, null);
+        poolCount -= i;
+    }
+
+    private void removeEntry(Node<K, V> n) {
+        Node<K, V> last = entries[--count];
+        entries[n.index] = last;
+        last.index = n.index;
+        entries[count] = null;
+        n.index = -1;
     }
 
     /**
@@ -149,7 +206,7 @@ public class ApproximateLRUCache<K, V> {
      */
     public Map<K, Long> snapshotAccessSeqs() {
         Map<K, Long> snap = new HashMap<>();
-        for (Map.Entry<K, Node<V>> e : map.entrySet()) {
+        for (Map.Entry<K, Node<K, V>> e : map.entrySet()) {
             snap.put(e.getKey(), e.getValue().accessSeq);
         }
         return snap;
@@ -160,7 +217,7 @@ public class ApproximateLRUCache<K, V> {
     // ------------------------
     public static void main(String[] args) throws InterruptedException {
         final int CAP = 1000;
-        final ApproximateLRUCache<Integer, Integer> cache = new ApproximateLRUCache<>(CAP, 256);
+        final ApproximateLRUCache<Integer, Integer> cache = new ApproximateLRUCache<>(CAP);
 
         final int THREADS = 32;
         final int OPS_PER_THREAD = 100_000;
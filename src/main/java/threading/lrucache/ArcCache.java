@@ -0,0 +1,267 @@
+package threading.lrucache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha, FAST '03), segmented like
+ * SegmentedLRUCacheVersion2: a power-of-two number of segments picked by masking the spread
+ * hash, each a complete ARC of capacity / segments entries under its own lock.
+ *
+ * Per segment, with c = segment capacity:
+ * - T1 holds entries seen once recently, T2 entries seen at least twice (both resident).
+ * - B1 and B2 are ghost lists: keys recently evicted from T1 and T2, without values.
+ * - p is the target size of T1. A miss that finds its key in B1 means T1 was too small,
+ *   so p grows; a key found in B2 shrinks it. The cache keeps shifting between recency
+ *   and frequency to suit the workload.
+ * A one-off scan only flows through T1, so the working set in T2 survives it.
+ *
+ * A hit moves the entry to the MRU end of T2, so hits take the segment lock (ClockProCache
+ * avoids that).
+ */
+public class ArcCache<K, V> implements SegmentedCache<K, V> {
+    private final StatsCounter statsCounter = new StatsCounter();
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+
+    public ArcCache(int totalCapacity, int segmentsCount) {
+        if (segmentsCount <= 0) throw new IllegalArgumentException("segments > 0");
+        if (totalCapacity <= 0) throw new IllegalArgumentException("capacity > 0");
+        // make segments power of two for fast masking
+        int s = 1;
+        while (s < segmentsCount) s <<= 1;
+        this.segmentMask = s - 1;
+        int perSegment = Math.max(1, totalCapacity / s);
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[s];
+        this.segments = segments;
+        for (int i = 0; i < s; i++) {
+            this.segments[i] = new Segment<>(perSegment, statsCounter);
+        }
+    }
+
+    private int spreadHash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return h;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        return segments[spreadHash(key) & segmentMask];
+    }
+
+    @Override
+    public V get(K key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    // Resident entries; not atomic across segments
+    @Override
+    public int totalSize() {
+        int sum = 0;
+        for (Segment<K, V> seg : segments) sum += seg.size();
+        return sum;
+    }
+
+    // Bounded by entry count, so every entry weighs 1
+    @Override
+    public long weightedSize() {
+        return totalSize();
+    }
+
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            Segment<K, V> seg = segments[i];
+            segmentStats.add(new SegmentStats(i, seg.size(), seg.capacity, seg.contention.sum()));
+        }
+        return statsCounter.snapshot(segmentStats);
+    }
+
+    // -------- Segment (one ARC) --------
+    private static final class Segment<K, V> {
+        private final int capacity;
+        private final StatsCounter stats;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder contention = new LongAdder();
+        // resident and ghost entries alike; Node.list says which
+        private final HashMap<K, Node<K, V>> map = new HashMap<>();
+        private final Lru<K, V> t1 = new Lru<>(), t2 = new Lru<>(), b1 = new Lru<>(), b2 = new Lru<>();
+        private int p; // target size of t1
+
+        Segment(int capacity, StatsCounter stats) {
+            this.capacity = capacity;
+            this.stats = stats;
+        }
+
+        V get(K key) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K, V> n = map.get(key);
+                if (n == null || n.list == b1 || n.list == b2) {
+                    stats.recordMiss();
+                    return null;
+                }
+                stats.recordHit();
+                n.list.unlink(n);
+                t2.addFirst(n);
+                return n.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, V value) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K, V> n = map.get(key);
+                if (n != null && (n.list == t1 || n.list == t2)) {
+                    n.value = value;
+                    n.list.unlink(n);
+                    t2.addFirst(n);
+                } else if (n != null && n.list == b1) {
+                    p = Math.min(capacity, p + Math.max(b2.size / b1.size, 1));
+                    replace(false);
+                    b1.unlink(n);
+                    n.value = value;
+                    t2.addFirst(n);
+                } else if (n != null) { // in b2
+                    p = Math.max(0, p - Math.max(b1.size / b2.size, 1));
+                    replace(true);
+                    b2.unlink(n);
+                    n.value = value;
+                    t2.addFirst(n);
+                } else {
+                    int l1 = t1.size + b1.size;
+                    int total = l1 + t2.size + b2.size;
+                    if (l1 == capacity) {
+                        if (t1.size < capacity) {
+                            forget(b1.removeLast());
+                            replace(false);
+                        } else {
+                            // b1 is empty: drop t1's LRU outright
+                            Node<K, V> victim = t1.removeLast();
+                            map.remove(victim.key);
+                            stats.recordEviction(EvictionCause.SIZE);
+                        }
+                    } else if (total >= capacity) {
+                        if (total == 2 * capacity) forget(b2.removeLast());
+                        replace(false);
+                    }
+                    n = new Node<>(key, value);
+                    map.put(key, n);
+                    t1.addFirst(n);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Evict one resident entry into its ghost list; hitInB2 is the ARC paper's x in B2 test. */
+        private void replace(boolean hitInB2) {
+            if (t1.size > 0 && (t1.size > p || (hitInB2 && t1.size == p))) {
+                Node<K, V> victim = t1.removeLast();
+                victim.value = null;
+                b1.addFirst(victim);
+            } else if (t2.size > 0) {
+                Node<K, V> victim = t2.removeLast();
+                victim.value = null;
+                b2.addFirst(victim);
+            } else {
+                return;
+            }
+            stats.recordEviction(EvictionCause.SIZE);
+        }
+
+        private void forget(Node<K, V> ghost) {
+            if (ghost != null) map.remove(ghost.key);
+        }
+
+        int size() {
+            StatsCounter.lock(lock, contention);
+            try {
+                return t1.size + t2.size;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Intrusive LRU list; head side is most recent. */
+    private static final class Lru<K, V> {
+        private final Node<K, V> head = new Node<>(null, null);
+        private final Node<K, V> tail = new Node<>(null, null);
+        int size;
+
+        Lru() {
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        void addFirst(Node<K, V> n) {
+            n.list = this;
+            n.prev = head;
+            n.next = head.next;
+            head.next.prev = n;
+            head.next = n;
+            size++;
+        }
+
+        void unlink(Node<K, V> n) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+            n.prev = n.next = null;
+            n.list = null;
+            size--;
+        }
+
+        Node<K, V> removeLast() {
+            if (size == 0) return null;
+            Node<K, V> n = tail.prev;
+            unlink(n);
+            return n;
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        V value; // null while in a ghost list
+        Lru<K, V> list;
+        Node<K, V> prev, next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) {
+        // 500 hot keys re-read constantly, interrupted by scans of 5000 keys seen once
+        ArcCache<Integer, Integer> arc = new ArcCache<>(1000, 4);
+        SegmentedLRUCacheVersion2<Integer, Integer> lru = new SegmentedLRUCacheVersion2<>(1000, 4);
+        int scanKey = 1_000_000;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                int key = i % 500;
+                if (arc.get(key) == null) arc.put(key, key);
+                if (lru.get(key) == null) lru.put(key, key);
+            }
+            for (int i = 0; i < 5_000; i++, scanKey++) {
+                if (arc.get(scanKey) == null) arc.put(scanKey, scanKey);
+                if (lru.get(scanKey) == null) lru.put(scanKey, scanKey);
+            }
+        }
+        System.out.printf("hit rate with scans: ARC %.3f, LRU %.3f%n", arc.stats().hitRate(), lru.stats().hitRate());
+        System.out.println("ARC " + arc.stats());
+    }
+}
@@ -0,0 +1,27 @@
+package threading.lrucache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes values for a LoadingCache on a miss or refresh.
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+    /** Value for key, or null if there is none (null results are not cached). */
+    V load(K key) throws Exception;
+
+    /**
+     * Values for several keys in one round trip. Override when the source supports batching;
+     * keys missing from the result are treated as having no value.
+     */
+    default Map<K, V> loadAll(Set<? extends K> keys) throws Exception {
+        Map<K, V> result = new HashMap<>();
+        for (K key : keys) {
+            V value = load(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+}
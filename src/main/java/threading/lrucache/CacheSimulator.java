@@ -0,0 +1,359 @@
+package threading.lrucache;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+/**
+ * Replays recorded key-access traces through every cache policy and reports hit ratio and
+ * throughput, so policies can be chosen from production traces rather than random keys.
+ *
+ * Trace formats:
+ * - text: one key per line. Lines that parse as a long are used as is; other keys are hashed
+ *   to 64 bits. Blank lines and lines starting with '#' are skipped. The trace is parsed into
+ *   memory once, so parsing is not part of the measured replay.
+ * - binary (*.bin): 8-byte big-endian longs, memory-mapped in 64 MB windows, so traces
+ *   larger than the heap (or 2 GB) replay without being loaded.
+ *
+ * Each access is a read-through: get, and put the key on a miss. Every policy starts from an
+ * empty cache of the same capacity. The hit ratio comes from the cache's own CacheStats.
+ * Int-keyed caches (LRUCache, lru.LRUCacheThreadSafe) see keys folded to an int, so huge key
+ * spaces can alias there. With threads > 1, thread i replays accesses i, i + threads, ...,
+ * and policies that are not thread-safe are skipped.
+ *
+ * Usage: CacheSimulator TRACE CAPACITY [SEGMENTS] [THREADS]
+ */
+public final class CacheSimulator {
+    private static final long MAP_WINDOW = 64L << 20;
+
+    private CacheSimulator() {}
+
+    /** A sequence of keys that can be replayed any number of times, optionally split across threads. */
+    public interface Trace {
+        long length();
+
+        /** Feed sink every parts-th access, starting at access number part. */
+        void replay(int part, int parts, LongConsumer sink);
+    }
+
+    /** Opens path as a binary trace if it ends in .bin, else as a text trace. */
+    public static Trace open(Path path) throws IOException {
+        return path.getFileName().toString().endsWith(".bin") ? binaryTrace(path) : textTrace(path);
+    }
+
+    public static Trace textTrace(Path path) throws IOException {
+        long[] keys = new long[1024];
+        int n = 0;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                if (n == keys.length) keys = Arrays.copyOf(keys, n * 2);
+                keys[n++] = parseKey(line);
+            }
+        }
+        long[] trace = Arrays.copyOf(keys, n);
+        return new Trace() {
+            public long length() {
+                return trace.length;
+            }
+
+            public void replay(int part, int parts, LongConsumer sink) {
+                for (int i = part; i < trace.length; i += parts) sink.accept(trace[i]);
+            }
+        };
+    }
+
+    public static Trace binaryTrace(Path path) throws IOException {
+        long bytes = Files.size(path);
+        if (bytes % Long.BYTES != 0)
+            throw new IllegalArgumentException(path + ": size " + bytes + " is not a multiple of 8");
+        long count = bytes / Long.BYTES;
+        return new Trace() {
+            public long length() {
+                return count;
+            }
+
+            public void replay(int part, int parts, LongConsumer sink) {
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                    for (long pos = 0; pos < bytes; pos += MAP_WINDOW) {
+                        MappedByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, bytes - pos));
+                        LongBuffer longs = window.asLongBuffer();
+                        long first = pos / Long.BYTES;
+                        int i = (int) Math.floorMod(part - first, (long) parts);
+                        for (int len = longs.limit(); i < len; i += parts) sink.accept(longs.get(i));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private static long parseKey(String key) {
+        try {
+            return Long.parseLong(key);
+        } catch (NumberFormatException e) {
+            // FNV-1a, 64 bit
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+
+    /** A cache under test: its stats, a read-through access, and what to close afterwards. */
+    private record Subject(Instrumented cache, LongConsumer access, AutoCloseable resource) {
+        Subject(Instrumented cache, LongConsumer access) {
+            this(cache, access, () -> {});
+        }
+    }
+
+    private interface Factory {
+        Subject create(int capacity, int segments);
+    }
+
+    private record Policy(String name, boolean threadSafe, Factory factory) {}
+
+    /** failure is null unless the cache threw during replay, in which case the numbers are partial. */
+    public record Result(String policy, long accesses, double hitRatio, long nanos, CacheStats stats, Throwable failure) {
+        public double opsPerSecond() {
+            return nanos == 0 ? 0 : accesses * 1e9 / nanos;
+        }
+    }
+
+    private static final List<Policy> POLICIES = List.of(
+            new Policy("LRUCache", false, (cap, segs) -> {
+                LRUCache c = new LRUCache(cap);
+                return new Subject(c, k -> {
+                    int key = Long.hashCode(k);
+                    if (c.get(key) == -1) c.put(key, key);
+                });
+            }),
+            new Policy("SynchronizedLRUCache", true, (cap, segs) -> {
+                SynchronizedLRUCache<Long, Long> c = new SynchronizedLRUCache<>(cap);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("ConcurrentLRUCache", true, (cap, segs) -> {
+                ConcurrentLRUCache<Long, Long> c = new ConcurrentLRUCache<>(cap);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("ApproximateLRUCache", true, (cap, segs) -> {
+                ApproximateLRUCache<Long, Long> c = new ApproximateLRUCache<>(cap);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("SegmentedLRUCache", true, (cap, segs) -> {
+                SegmentedLRUCache<Long, Long> c = new SegmentedLRUCache<>(cap, segs);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                }, c);
+            }),
+            new Policy("SegmentedLRUCacheVersion2", true, (cap, segs) -> {
+                SegmentedLRUCacheVersion2<Long, Long> c = new SegmentedLRUCacheVersion2<>(cap, segs);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("ArcCache", true, (cap, segs) -> {
+                ArcCache<Long, Long> c = new ArcCache<>(cap, segs);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("ClockProCache", true, (cap, segs) -> {
+                ClockProCache<Long, Long> c = new ClockProCache<>(cap, segs);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("TinyLfuCache", true, (cap, segs) -> {
+                TinyLfuCache<Long, Long> c = new TinyLfuCache<>(cap, segs);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("OffHeapLRUCache", true, (cap, segs) -> {
+                // 8-byte values land in the smallest (64 B) chunk class; the slab size must
+                // divide the per-segment budget or the remainder is never used
+                long perSegment = ((long) cap + segs - 1) / segs * 64;
+                int slab = (int) Math.min(1 << 16, Long.lowestOneBit(perSegment));
+                OffHeapLRUCache<Long> c = new OffHeapLRUCache<>(perSegment * segs, segs, slab);
+                byte[] value = new byte[Long.BYTES];
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, value);
+                }, c);
+            }),
+            new Policy("LoadingCache", true, (cap, segs) -> {
+                LoadingCache<Long, Long> c = new LoadingCache<>(cap, segs, k -> k);
+                return new Subject(c, c::get, c);
+            }),
+            new Policy("lru.LRUCache", true, (cap, segs) -> {
+                lru.LRUCache<Long, Long> c = new lru.LRUCache<>(cap);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("lru.ClockLRUCache", true, (cap, segs) -> {
+                lru.ClockLRUCache<Long, Long> c = new lru.ClockLRUCache<>(cap);
+                return new Subject(c, k -> {
+                    if (c.get(k) == null) c.put(k, k);
+                });
+            }),
+            new Policy("lru.LRUCacheThreadSafe", true, (cap, segs) -> {
+                lru.LRUCacheThreadSafe c = new lru.LRUCacheThreadSafe(cap, segs);
+                return new Subject(c, k -> {
+                    int key = Long.hashCode(k);
+                    if (c.get(key) == -1) c.put(key, key, Long.MAX_VALUE, 0);
+                });
+            }));
+
+    /** Replay trace through every policy; segments applies to the segmented caches only. */
+    public static List<Result> simulate(Trace trace, int capacity, int segments, int threads) throws Exception {
+        if (capacity <= 0 || segments <= 0 || threads <= 0)
+            throw new IllegalArgumentException("capacity, segments and threads must be > 0");
+        List<Result> results = new ArrayList<>();
+        for (Policy policy : POLICIES) {
+            if (threads > 1 && !policy.threadSafe()) continue;
+            Subject subject = policy.factory().create(capacity, segments);
+            try {
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                long nanos = replay(trace, subject.access(), threads, failure);
+                CacheStats stats = subject.cache().stats();
+                results.add(new Result(policy.name(), stats.requestCount(), stats.hitRate(), nanos, stats, failure.get()));
+            } finally {
+                subject.resource().close();
+            }
+        }
+        return results;
+    }
+
+    private static long replay(Trace trace, LongConsumer access, int threads,
+                               AtomicReference<Throwable> failure) throws InterruptedException {
+        if (threads == 1) {
+            long start = System.nanoTime();
+            try {
+                trace.replay(0, 1, access);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+            return System.nanoTime() - start;
+        }
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int part = t;
+            workers[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    trace.replay(part, threads, access);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "replay-" + t);
+            workers[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread w : workers) w.join();
+        return System.nanoTime() - start;
+    }
+
+    public static void print(List<Result> results) {
+        System.out.printf("%-28s %10s %14s %12s%n", "policy", "hit ratio", "ops/s", "evictions");
+        for (Result r : results) {
+            if (r.failure() != null) {
+                System.out.printf("%-28s FAILED after %d accesses: %s%n", r.policy(), r.accesses(), r.failure());
+                continue;
+            }
+            System.out.printf("%-28s %10.4f %,14.0f %12d%n",
+                    r.policy(), r.hitRatio(), r.opsPerSecond(), r.stats().evictionCount());
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2) {
+            Trace trace = open(Path.of(args[0]));
+            int capacity = Integer.parseInt(args[1]);
+            int segments = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            System.out.println(args[0] + ": " + trace.length() + " accesses, capacity " + capacity);
+            print(simulate(trace, capacity, segments, threads));
+            return;
+        }
+
+        // no trace given: Zipf(0.9) over 50k keys, interrupted by one-off scans
+        long[] keys = new long[300_000];
+        Random rnd = new Random(42);
+        int n = 50_000;
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) cdf[i] = sum += 1 / Math.pow(i + 1, 0.9);
+        long scanKey = 1_000_000;
+        for (int i = 0; i < keys.length; i++) {
+            if (i % 50_000 >= 45_000) {
+                keys[i] = scanKey++;
+            } else {
+                int idx = Arrays.binarySearch(cdf, rnd.nextDouble() * sum);
+                keys[i] = idx >= 0 ? idx : -idx - 1;
+            }
+        }
+
+        Path text = Files.createTempFile("trace", ".txt");
+        Path binary = Files.createTempFile("trace", ".bin");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(text)) {
+                for (long k : keys) {
+                    out.write("user:" + k);
+                    out.newLine();
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(binary)))) {
+                for (long k : keys) out.writeLong(k);
+            }
+
+            System.out.println("text trace, capacity 1000, 4 segments:");
+            print(simulate(open(text), 1000, 4, 1));
+            System.out.println();
+            System.out.println("binary (mmap) trace, capacity 1000, 4 segments, 4 threads:");
+            print(simulate(open(binary), 1000, 4, 4));
+        } finally {
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(binary);
+        }
+    }
+}
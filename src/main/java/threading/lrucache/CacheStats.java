@@ -0,0 +1,118 @@
+package threading.lrucache;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of a cache's counters, taken by StatsCounter.snapshot().
+ *
+ * Counters are cumulative since the cache was created; minus() turns two snapshots into
+ * the activity between them. Load-time percentiles are bucket upper bounds from a
+ * log-scale histogram (within 25%). minus() subtracts the histograms bucket by bucket, so
+ * a delta's percentiles cover only the loads in between; its max is the upper bound of the
+ * highest bucket that gained a load. Segment occupancy describes the later snapshot.
+ */
+public record CacheStats(
+        long hitCount,
+        long missCount,
+        Map<EvictionCause, Long> evictionCounts,
+        long loadSuccessCount,
+        long loadFailureCount,
+        long totalLoadNanos,
+        long loadP50Nanos,
+        long loadP90Nanos,
+        long loadP99Nanos,
+        long loadMaxNanos,
+        long[] loadHistogram,
+        List<SegmentStats> segments) {
+
+    public CacheStats {
+        evictionCounts = Map.copyOf(evictionCounts);
+        loadHistogram = loadHistogram.clone();
+        segments = List.copyOf(segments);
+    }
+
+    /** Load-time counts per StatsCounter histogram bucket. */
+    @Override
+    public long[] loadHistogram() {
+        return loadHistogram.clone();
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public double hitRate() {
+        long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long evictionCount() {
+        long total = 0;
+        for (long c : evictionCounts.values()) total += c;
+        return total;
+    }
+
+    public long evictionCount(EvictionCause cause) {
+        return evictionCounts.getOrDefault(cause, 0L);
+    }
+
+    public double averageLoadNanos() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0 : (double) totalLoadNanos / loads;
+    }
+
+    public long size() {
+        long total = 0;
+        for (SegmentStats s : segments) total += s.size();
+        return total;
+    }
+
+    public long lockContention() {
+        long total = 0;
+        for (SegmentStats s : segments) total += s.lockContention();
+        return total;
+    }
+
+    /** Activity between earlier and this snapshot. */
+    public CacheStats minus(CacheStats earlier) {
+        Map<EvictionCause, Long> evictions = new EnumMap<>(EvictionCause.class);
+        for (EvictionCause cause : EvictionCause.values()) {
+            evictions.put(cause, evictionCount(cause) - earlier.evictionCount(cause));
+        }
+        List<SegmentStats> segs = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            SegmentStats now = segments.get(i);
+            long before = i < earlier.segments.size() ? earlier.segments.get(i).lockContention() : 0;
+            segs.add(new SegmentStats(now.segment(), now.size(), now.capacity(), now.lockContention() - before));
+        }
+        long[] loads = new long[loadHistogram.length];
+        int highest = -1;
+        for (int i = 0; i < loads.length; i++) {
+            loads[i] = loadHistogram[i] - (i < earlier.loadHistogram.length ? earlier.loadHistogram[i] : 0);
+            if (loads[i] > 0) highest = i;
+        }
+        long max = highest < 0 ? 0 : Math.min(loadMaxNanos, StatsCounter.upperBound(highest));
+        return new CacheStats(
+                hitCount - earlier.hitCount,
+                missCount - earlier.missCount,
+                evictions,
+                loadSuccessCount - earlier.loadSuccessCount,
+                loadFailureCount - earlier.loadFailureCount,
+                totalLoadNanos - earlier.totalLoadNanos,
+                StatsCounter.percentile(loads, 0.50), StatsCounter.percentile(loads, 0.90),
+                StatsCounter.percentile(loads, 0.99), max,
+                loads, segs);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "hits=%d misses=%d hitRate=%.3f evictions=%s loads=%d/%d fail load p50/p90/p99/max=%d/%d/%d/%dus size=%d contention=%d",
+                hitCount, missCount, hitRate(), evictionCounts, loadSuccessCount, loadFailureCount,
+                loadP50Nanos / 1000, loadP90Nanos / 1000, loadP99Nanos / 1000, loadMaxNanos / 1000,
+                size(), lockContention());
+    }
+}
@@ -0,0 +1,146 @@
+package threading.lrucache;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes CacheStats outside the process.
+ *
+ * - registerMBean(): exposes a cache as an MXBean named
+ *   threading.lrucache:type=Cache,name=NAME. Every attribute read takes a fresh snapshot,
+ *   so jconsole or a JMX scraper always sees current values.
+ * - schedule(): hands the interval delta (CacheStats.minus) to a consumer at a fixed
+ *   rate, for logs or a metrics pipeline.
+ */
+public final class CacheStatsExporter {
+    private static final ScheduledExecutorService REPORTER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-stats-reporter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private CacheStatsExporter() {}
+
+    /** JMX view of one cache; attribute names follow the getters. */
+    public interface CacheStatsMXBean {
+        long getHitCount();
+        long getMissCount();
+        double getHitRate();
+        long getEvictionCount();
+        long getSizeEvictionCount();
+        long getExpiredEvictionCount();
+        long getAdmissionRejectionCount();
+        long getLoadSuccessCount();
+        long getLoadFailureCount();
+        double getAverageLoadMillis();
+        double getLoadP99Millis();
+        long getSize();
+        long getLockContention();
+        /** Per-segment occupancy in [0, 1], to spot hash skew. */
+        double[] getSegmentOccupancy();
+        long[] getSegmentLockContention();
+    }
+
+    private static final class Bean implements CacheStatsMXBean {
+        private final Instrumented cache;
+
+        Bean(Instrumented cache) {
+            this.cache = cache;
+        }
+
+        public long getHitCount() { return cache.stats().hitCount(); }
+        public long getMissCount() { return cache.stats().missCount(); }
+        public double getHitRate() { return cache.stats().hitRate(); }
+        public long getEvictionCount() { return cache.stats().evictionCount(); }
+        public long getSizeEvictionCount() { return cache.stats().evictionCount(EvictionCause.SIZE); }
+        public long getExpiredEvictionCount() { return cache.stats().evictionCount(EvictionCause.EXPIRED); }
+        public long getAdmissionRejectionCount() { return cache.stats().evictionCount(EvictionCause.ADMISSION); }
+        public long getLoadSuccessCount() { return cache.stats().loadSuccessCount(); }
+        public long getLoadFailureCount() { return cache.stats().loadFailureCount(); }
+        public double getAverageLoadMillis() { return cache.stats().averageLoadNanos() / 1e6; }
+        public double getLoadP99Millis() { return cache.stats().loadP99Nanos() / 1e6; }
+        public long getSize() { return cache.stats().size(); }
+        public long getLockContention() { return cache.stats().lockContention(); }
+
+        public double[] getSegmentOccupancy() {
+            return cache.stats().segments().stream().mapToDouble(SegmentStats::occupancy).toArray();
+        }
+
+        public long[] getSegmentLockContention() {
+            return cache.stats().segments().stream().mapToLong(SegmentStats::lockContention).toArray();
+        }
+    }
+
+    /** Register cache with the platform MBean server; returns the name to unregister with. */
+    public static ObjectName registerMBean(String name, Instrumented cache) {
+        try {
+            ObjectName objectName = new ObjectName("threading.lrucache:type=Cache,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Bean(cache), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register cache stats MBean " + name, e);
+        }
+    }
+
+    public static void unregisterMBean(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister " + objectName, e);
+        }
+    }
+
+    /** Every period, pass the activity since the previous report to consumer; cancel the future to stop. */
+    public static ScheduledFuture<?> schedule(Instrumented cache, long period, TimeUnit unit, Consumer<CacheStats> consumer) {
+        if (period <= 0) throw new IllegalArgumentException("period must be > 0");
+        CacheStats[] previous = {cache.stats()};
+        return REPORTER.scheduleAtFixedRate(() -> {
+            CacheStats current = cache.stats();
+            consumer.accept(current.minus(previous[0]));
+            previous[0] = current;
+        }, period, period, unit);
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        try (SegmentedLRUCache<Integer, String> cache = new SegmentedLRUCache<>(1000, 8)) {
+            ObjectName name = registerMBean("demo", cache);
+            ScheduledFuture<?> report = schedule(cache, 200, TimeUnit.MILLISECONDS,
+                    delta -> System.out.println("last 200ms: " + delta));
+
+            Thread[] workers = new Thread[4];
+            for (int w = 0; w < workers.length; w++) {
+                workers[w] = new Thread(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(700);
+                    while (System.nanoTime() < end) {
+                        int key = (int) Math.abs(rnd.nextGaussian() * 800);
+                        if (cache.get(key) == null) cache.put(key, "v" + key);
+                    }
+                });
+                workers[w].start();
+            }
+            for (Thread t : workers) t.join();
+            report.cancel(false);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            System.out.println("JMX HitRate = " + server.getAttribute(name, "HitRate")
+                    + ", SizeEvictionCount = " + server.getAttribute(name, "SizeEvictionCount"));
+            System.out.println("total: " + cache.stats());
+            for (SegmentStats s : cache.stats().segments()) {
+                System.out.printf("  segment %d occupancy %.2f contention %d%n",
+                        s.segment(), s.occupancy(), s.lockContention());
+            }
+            unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package threading.lrucache;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persists a LoadingCache's hottest keys so a restarted process can reload them before
+ * taking traffic, instead of sending every first request to the source.
+ *
+ * - dump(): writes the hotKeys most accessed keys, with their access counts and idle
+ *   times, to a fresh temp file next to the target through a FileChannel, forces it and
+ *   renames it over the target. A crash mid-dump leaves the previous file intact, and
+ *   concurrent dumps each write their own temp file; the last rename wins.
+ * - scheduleDumps(): runs dump() at a fixed rate on a shared daemon thread.
+ * - warmUp(): reads the file and loads the keys through the cache's loader, most accessed
+ *   first, in batches of BATCH_SIZE run on parallelism threads. Each batch is one getAll(),
+ *   so a loader with a real loadAll() makes one round trip per batch.
+ *
+ * File layout (big-endian):
+ *   int magic | int version | int count | count x (int accesses | long idleNanos | short keyLength | key bytes)
+ */
+public class CacheWarmer<K> {
+    private static final int MAGIC = 0x43574D31; // "CWM1"
+    private static final int VERSION = 1;
+    private static final int BATCH_SIZE = 256;
+    private static final ScheduledExecutorService DUMPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-warmer-dump");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LoadingCache<K, ?> cache;
+    private final Path file;
+    private final KeyCodec<K> codec;
+    private final int hotKeys;
+
+    public CacheWarmer(LoadingCache<K, ?> cache, Path file, KeyCodec<K> codec, int hotKeys) {
+        if (hotKeys <= 0) throw new IllegalArgumentException("hotKeys must be > 0");
+        this.cache = cache;
+        this.file = file;
+        this.codec = codec;
+        this.hotKeys = hotKeys;
+    }
+
+    /** Write the current hot keys; returns how many were written. */
+    public int dump() throws IOException {
+        List<HotKey<K>> hot = cache.hottest(hotKeys);
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            write(tmp, hot);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) Files.deleteIfExists(tmp);
+        }
+        return hot.size();
+    }
+
+    private void write(Path tmp, List<HotKey<K>> hot) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            buf.putInt(MAGIC).putInt(VERSION).putInt(hot.size());
+            for (HotKey<K> h : hot) {
+                byte[] key = codec.encode(h.key());
+                if (key.length > Short.MAX_VALUE)
+                    throw new IllegalArgumentException("encoded key longer than " + Short.MAX_VALUE + " bytes: " + h.key());
+                int need = Integer.BYTES + Long.BYTES + Short.BYTES + key.length;
+                if (buf.remaining() < need) {
+                    drain(ch, buf);
+                    if (buf.capacity() < need) buf = ByteBuffer.allocateDirect(need);
+                }
+                buf.putInt(h.accesses()).putLong(h.idleNanos()).putShort((short) key.length).put(key);
+            }
+            drain(ch, buf);
+            ch.force(true);
+        }
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    /** Dump every period until the returned future is cancelled; failures are logged and retried next period. */
+    public ScheduledFuture<?> scheduleDumps(long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("period must be > 0");
+        return DUMPER.scheduleAtFixedRate(() -> {
+            try {
+                dump();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("cache warmer dump to " + file + " failed: " + e);
+            }
+        }, period, period, unit);
+    }
+
+    /** Entries in file, in the order they were written; empty if there is no file yet. */
+    public static <K> List<HotKey<K>> read(Path file, KeyCodec<K> codec) throws IOException {
+        if (!Files.exists(file)) return List.of();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            try {
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                    throw new IOException(file + " is not a cache warm-up file");
+                int count = buf.getInt();
+                if (count < 0) throw new IOException(file + " is corrupt: negative entry count " + count);
+                List<HotKey<K>> entries = new ArrayList<>(Math.min(count, 1 << 16));
+                for (int i = 0; i < count; i++) {
+                    int accesses = buf.getInt();
+                    long idleNanos = buf.getLong();
+                    int length = buf.getShort();
+                    if (length < 0 || length > buf.remaining())
+                        throw new IOException(file + " is corrupt: key length " + length + " at entry " + i);
+                    byte[] key = new byte[length];
+                    buf.get(key);
+                    entries.add(new HotKey<>(codec.decode(key), accesses, idleNanos));
+                }
+                return entries;
+            } catch (BufferUnderflowException e) {
+                throw new IOException(file + " is truncated", e);
+            }
+        }
+    }
+
+    /**
+     * Load the persisted keys into the cache, hottest first, and wait for it. Failed batches
+     * are skipped: warm-up is best effort and a key it misses is loaded on first use.
+     * Returns the number of keys now cached from the file.
+     */
+    public int warmUp(int parallelism) throws IOException {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be > 0");
+        List<HotKey<K>> entries = new ArrayList<>(read(file, codec));
+        entries.sort(Comparator.comparingInt((HotKey<K> h) -> h.accesses()).reversed());
+        AtomicInteger loaded = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "cache-warmer-load");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<CompletableFuture<Void>> batches = new ArrayList<>();
+            for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+                List<K> keys = new ArrayList<>(BATCH_SIZE);
+                for (HotKey<K> h : entries.subList(from, Math.min(from + BATCH_SIZE, entries.size()))) {
+                    keys.add(h.key());
+                }
+                batches.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        loaded.addAndGet(cache.getAll(keys).size());
+                    } catch (RuntimeException e) {
+                        System.err.println("cache warm-up batch failed: " + e);
+                    }
+                }, pool));
+            }
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            pool.shutdown();
+        }
+        return loaded.get();
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        AtomicInteger roundTrips = new AtomicInteger();
+        CacheLoader<Long, String> db = new CacheLoader<>() {
+            @Override
+            public String load(Long key) throws Exception {
+                roundTrips.incrementAndGet();
+                Thread.sleep(1);
+                return "row-" + key;
+            }
+
+            @Override
+            public Map<Long, String> loadAll(Set<? extends Long> keys) throws Exception {
+                roundTrips.incrementAndGet();
+                Thread.sleep(5);
+                Map<Long, String> rows = new HashMap<>();
+                for (Long k : keys) rows.put(k, "row-" + k);
+                return rows;
+            }
+        };
+        Path file = Files.createTempFile("cache-warm", ".bin");
+        try {
+            // before the deploy: a skewed workload heats up the cache, then it is dumped
+            try (LoadingCache<Long, String> before = new LoadingCache<>(20_000, 8, db)) {
+                Random rnd = new Random(7);
+                for (int i = 0; i < 200_000; i++) before.get((long) Math.abs(rnd.nextGaussian() * 3000));
+                CacheWarmer<Long> warmer = new CacheWarmer<>(before, file, KeyCodec.longs(), 5_000);
+                System.out.println("dumped " + warmer.dump() + " keys, " + Files.size(file) + " bytes");
+            }
+
+            // after the deploy: reload before serving
+            roundTrips.set(0);
+            try (LoadingCache<Long, String> after = new LoadingCache<>(20_000, 8, db)) {
+                long start = System.nanoTime();
+                int n = new CacheWarmer<>(after, file, KeyCodec.longs(), 5_000).warmUp(4);
+                System.out.println("warmed " + n + " keys in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                        + " ms with " + roundTrips.get() + " loader calls");
+                CacheStats warm = after.stats();
+                Random rnd = new Random(8);
+                for (int i = 0; i < 10_000; i++) after.get((long) Math.abs(rnd.nextGaussian() * 3000));
+                System.out.printf("first 10k requests after warm-up: hit rate %.3f%n", after.stats().minus(warm).hitRate());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package threading.lrucache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CLOCK-Pro (Jiang, Chen and Zhang, USENIX ATC '05), segmented like
+ * SegmentedLRUCacheVersion2: a power-of-two number of segments picked by masking the spread
+ * hash, each a complete CLOCK-Pro of capacity / segments entries.
+ *
+ * Per segment, all entries sit on one clock ring:
+ * - hot: resident, with a short reuse distance;
+ * - cold: resident, on probation;
+ * - test: a cold entry whose value was evicted, kept as a key only. It remembers that the key
+ *   was seen recently.
+ * Three hands sweep the ring. The cold hand evicts unreferenced cold entries (they become
+ * test entries) and promotes referenced ones to hot. The hot hand demotes unreferenced hot
+ * entries to cold. The test hand drops test entries that were not re-requested in time.
+ * A re-requested test entry comes back as hot and grows the cold allocation; a test entry
+ * that expires shrinks it. So, like ARC, the split between recency and frequency adapts,
+ * and scans do not flush the hot set.
+ *
+ * Unlike LRU or ARC, a hit only sets the entry's reference bit: lookups go through a
+ * ConcurrentHashMap and never take the segment lock. Puts and misses do.
+ */
+public class ClockProCache<K, V> implements SegmentedCache<K, V> {
+    private final StatsCounter statsCounter = new StatsCounter();
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+
+    public ClockProCache(int totalCapacity, int segmentsCount) {
+        if (segmentsCount <= 0) throw new IllegalArgumentException("segments > 0");
+        if (totalCapacity <= 0) throw new IllegalArgumentException("capacity > 0");
+        // make segments power of two for fast masking
+        int s = 1;
+        while (s < segmentsCount) s <<= 1;
+        this.segmentMask = s - 1;
+        int perSegment = Math.max(1, totalCapacity / s);
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[s];
+        this.segments = segments;
+        for (int i = 0; i < s; i++) {
+            this.segments[i] = new Segment<>(perSegment, statsCounter);
+        }
+    }
+
+    private int spreadHash(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return h;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        return segments[spreadHash(key) & segmentMask];
+    }
+
+    @Override
+    public V get(K key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    // Resident entries; not atomic across segments
+    @Override
+    public int totalSize() {
+        int sum = 0;
+        for (Segment<K, V> seg : segments) sum += seg.size();
+        return sum;
+    }
+
+    // Bounded by entry count, so every entry weighs 1
+    @Override
+    public long weightedSize() {
+        return totalSize();
+    }
+
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            Segment<K, V> seg = segments[i];
+            segmentStats.add(new SegmentStats(i, seg.size(), seg.capacity, seg.contention.sum()));
+        }
+        return statsCounter.snapshot(segmentStats);
+    }
+
+    private enum Status { HOT, COLD, TEST }
+
+    // -------- Segment (one CLOCK-Pro) --------
+    private static final class Segment<K, V> {
+        private final int capacity;
+        private final StatsCounter stats;
+        private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder contention = new LongAdder();
+
+        // all guarded by lock
+        private Node<K, V> handHot, handCold, handTest;
+        private int hotCount, coldCount, testCount;
+        private int coldTarget; // adaptive share of capacity for cold resident entries
+        private volatile int residentCount;
+
+        Segment(int capacity, StatsCounter stats) {
+            this.capacity = capacity;
+            this.stats = stats;
+            // start almost all hot, as the paper does; test hits grow the cold share
+            this.coldTarget = Math.max(1, capacity / 100);
+        }
+
+        V get(K key) {
+            Node<K, V> n = map.get(key);
+            V value = n == null ? null : n.value;
+            if (value == null) { // absent, or a test entry
+                stats.recordMiss();
+                return null;
+            }
+            stats.recordHit();
+            if (!n.referenced) n.referenced = true;
+            return value;
+        }
+
+        void put(K key, V value) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K, V> n = map.get(key);
+                if (n == null) {
+                    n = new Node<>(key, value, Status.COLD);
+                    add(n);
+                    coldCount++;
+                    map.put(key, n);
+                } else if (n.status != Status.TEST) {
+                    n.value = value;
+                    n.referenced = true;
+                } else {
+                    // re-requested within its test period: it deserves to be hot,
+                    // and cold entries deserve more room
+                    if (coldTarget < capacity) coldTarget++;
+                    remove(n);
+                    testCount--;
+                    n.referenced = false;
+                    n.status = Status.HOT;
+                    n.value = value;
+                    add(n);
+                    hotCount++;
+                }
+                residentCount = hotCount + coldCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            return residentCount;
+        }
+
+        /** Make room for one more resident entry, then link n just behind the hot hand. */
+        private void add(Node<K, V> n) {
+            while (hotCount + coldCount >= capacity) {
+                runHandCold();
+                // keep at least coldTarget slots for cold entries; coldTarget >= 1, so the
+                // cold hand always finds something to evict
+                while (hotCount > capacity - coldTarget) runHandHot();
+            }
+            if (handHot == null) {
+                n.prev = n.next = n;
+                handHot = handCold = handTest = n;
+                return;
+            }
+            n.next = handHot;
+            n.prev = handHot.prev;
+            handHot.prev.next = n;
+            handHot.prev = n;
+        }
+
+        /** Unlink n from the ring, stepping any hand on it back so its next advance lands after n. */
+        private void remove(Node<K, V> n) {
+            if (n.next == n) {
+                handHot = handCold = handTest = null;
+            } else {
+                if (handHot == n) handHot = n.prev;
+                if (handCold == n) handCold = n.prev;
+                if (handTest == n) handTest = n.prev;
+                n.prev.next = n.next;
+                n.next.prev = n.prev;
+            }
+            n.prev = n.next = null;
+        }
+
+        private void runHandCold() {
+            Node<K, V> n = handCold;
+            if (n.status == Status.COLD) {
+                if (n.referenced) {
+                    n.referenced = false;
+                    n.status = Status.HOT;
+                    coldCount--;
+                    hotCount++;
+                } else {
+                    n.status = Status.TEST;
+                    n.value = null;
+                    coldCount--;
+                    testCount++;
+                    stats.recordEviction(EvictionCause.SIZE);
+                    while (testCount > capacity) runHandTest();
+                }
+            }
+            handCold = handCold.next;
+        }
+
+        /*
+         * The paper has the hot hand run the test hand whenever it catches up with it, and the
+         * test hand run the cold hand likewise; done literally that recurses without bound once
+         * all three hands meet. Here no hand runs another: the hot hand ends the test period of
+         * any test entry it passes, as the paper's hot hand does, and carries the test hand
+         * along when it overtakes it.
+         */
+        private void runHandHot() {
+            Node<K, V> n = handHot;
+            boolean carryTest = handTest == n;
+            if (n.status == Status.HOT) {
+                if (n.referenced) {
+                    n.referenced = false;
+                } else {
+                    n.status = Status.COLD;
+                    hotCount--;
+                    coldCount++;
+                }
+            } else if (n.status == Status.TEST) {
+                expire(n);
+            }
+            handHot = handHot.next;
+            if (carryTest) handTest = handHot;
+        }
+
+        private void runHandTest() {
+            Node<K, V> n = handTest;
+            if (n.status == Status.TEST) expire(n);
+            handTest = handTest.next;
+        }
+
+        /** A test entry's test period ran out without a re-request: cold entries get less room. */
+        private void expire(Node<K, V> n) {
+            remove(n);
+            map.remove(n.key, n);
+            testCount--;
+            if (coldTarget > 1) coldTarget--;
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value; // null once the entry is a test entry
+        volatile boolean referenced;
+        Status status; // guarded by the segment lock
+        Node<K, V> prev, next;
+
+        Node(K key, V value, Status status) {
+            this.key = key;
+            this.value = value;
+            this.status = status;
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) {
+        // 500 hot keys re-read constantly, interrupted by scans of 5000 keys seen once
+        ClockProCache<Integer, Integer> clockPro = new ClockProCache<>(1000, 4);
+        SegmentedLRUCacheVersion2<Integer, Integer> lru = new SegmentedLRUCacheVersion2<>(1000, 4);
+        int scanKey = 1_000_000;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                int key = i % 500;
+                if (clockPro.get(key) == null) clockPro.put(key, key);
+                if (lru.get(key) == null) lru.put(key, key);
+            }
+            for (int i = 0; i < 5_000; i++, scanKey++) {
+                if (clockPro.get(scanKey) == null) clockPro.put(scanKey, scanKey);
+                if (lru.get(scanKey) == null) lru.put(scanKey, scanKey);
+            }
+        }
+        System.out.printf("hit rate with scans: CLOCK-Pro %.3f, LRU %.3f%n", clockPro.stats().hitRate(), lru.stats().hitRate());
+        System.out.println("CLOCK-Pro " + clockPro.stats());
+    }
+}
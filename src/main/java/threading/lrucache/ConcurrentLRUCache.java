@@ -2,9 +2,15 @@ package threading.lrucache;
 
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class ConcurrentLRUCache <K,V>{
+/**
+ * Thread-safe LRU cache: ConcurrentHashMap for lookups, one lock-guarded list for order.
+ * Hits don't take the lock; they are recorded in a ReadBuffer and replayed onto the list
+ * in batches by whoever next wins tryLock (or by the next write).
+ */
+public class ConcurrentLRUCache <K,V> implements Instrumented{
 
 
     private final ConcurrentHashMap<K,Node<K,V>> map ;
@@ -12,6 +18,9 @@ public class ConcurrentLRUCache <K,V>{
     private final Node<K,V> head;
     private final Node<K,V> tail;
     private final ReentrantLock lock=new ReentrantLock();
+    private final LongAdder contention=new LongAdder();
+    private final StatsCounter stats=new StatsCounter();
+    private final ReadBuffer<Node<K,V>> readBuffer=new ReadBuffer<>();
 
 
     ConcurrentLRUCache(int capacity){
@@ -29,9 +38,12 @@ public class ConcurrentLRUCache <K,V>{
     public V get(K key){
         Objects.requireNonNull(key);
         Node<K,V> node=map.get(key);
-        if(node==null)
+        if(node==null){
+            stats.recordMiss();
             return null;
-        moveToFront(node);
+        }
+        stats.recordHit();
+        recordRead(node);
 
         return node.value;
 
@@ -43,7 +55,7 @@ public class ConcurrentLRUCache <K,V>{
         Node<K,V> existingNode=map.get(key);
         if(existingNode!=null){
             existingNode.value=value;
-            moveToFront(existingNode);
+            recordRead(existingNode);
             return;
         }
 
@@ -51,19 +63,21 @@ public class ConcurrentLRUCache <K,V>{
         Node<K,V> prev=map.putIfAbsent(key,newNode);
         if(prev!=null){
             prev.value=value;
-            moveToFront(prev);
+            recordRead(prev);
             return;
 
         }
 
-        lock.lock();
+        StatsCounter.lock(lock,contention);
         try{
+            drainReadBuffer();
             insertFront(newNode);
             if(map.size()>capacity){
                 Node<K,V> oldest=tail.prev;
                 if(oldest!=head){
                     removeNode(oldest);
                     map.remove(oldest.key);
+                    stats.recordEviction(EvictionCause.SIZE);
                 }
             }
         }finally {
@@ -76,7 +90,7 @@ public class ConcurrentLRUCache <K,V>{
         Objects.requireNonNull(key);
         Node<K,V> node=map.remove(key);
         if(node==null) return null;
-        lock.lock();
+        StatsCounter.lock(lock,contention);
         try
         {
             removeNode(node);
@@ -89,11 +103,10 @@ public class ConcurrentLRUCache <K,V>{
     }
 
     public void clear(){
-        lock.lock();
+        StatsCounter.lock(lock,contention);
         try {
             map.clear();
-            head.next=tail;
-            tail.prev=head;
+            unlinkAll();
         }finally {
             lock.unlock();
         }
@@ -103,15 +116,44 @@ public class ConcurrentLRUCache <K,V>{
         return map.size();
     }
 
+    @Override
+    public CacheStats stats(){
+        return stats.snapshot(map.size(),capacity,contention.sum());
+    }
+
+    private void recordRead(Node<K,V> node){
+        if(readBuffer.offer(node) && lock.tryLock()){
+            try{
+                drainReadBuffer();
+            }finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // caller holds lock
+    private void drainReadBuffer(){
+        readBuffer.drainTo(this::moveToFront);
+    }
+
+    // caller holds lock; skips nodes evicted or removed since the read was recorded
     private void moveToFront(Node<K,V> node) {
+        if(node.prev==null)
+            return;
+        removeNode(node);
+        insertFront(node);
+    }
 
-        lock.lock();
-        try {
-            removeNode(node);
-            insertFront(node);
-        } finally {
-            lock.unlock();
+    // caller holds lock; null every link so buffered reads of old nodes are skipped
+    private void unlinkAll(){
+        Node<K,V> node=head.next;
+        while(node!=tail){
+            Node<K,V> next=node.next;
+            node.prev=node.next=null;
+            node=next;
         }
+        head.next=tail;
+        tail.prev=head;
     }
     private void insertFront(Node<K,V> node){
         node.next=head.next;
@@ -0,0 +1,11 @@
+package threading.lrucache;
+
+/** Why a cache dropped an entry on its own (explicit remove/clear calls are not evictions). */
+public enum EvictionCause {
+    /** Over the entry-count or weight bound. */
+    SIZE,
+    /** TTL or expire-after-access deadline passed. */
+    EXPIRED,
+    /** Rejected by an admission policy (e.g. TinyLFU) instead of displacing a resident entry. */
+    ADMISSION
+}
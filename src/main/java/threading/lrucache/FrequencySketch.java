@@ -0,0 +1,87 @@
+package threading.lrucache;
+
+/**
+ * Count-min sketch of 4-bit counters used as the TinyLFU popularity estimate.
+ *
+ * - Each long packs 16 counters; a key maps to one counter in each of 4 rows (hashed
+ *   with different seeds), and its estimate is the minimum of the 4.
+ * - Counters saturate at 15.
+ * - Aging: after sampleSize increments every counter is halved, so the sketch tracks
+ *   recent popularity instead of all-time counts.
+ *
+ * Not thread-safe; callers guard it with their own lock.
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    public FrequencySketch(int maximumSize) {
+        int size = 16;
+        while (size < maximumSize) size <<= 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = Math.max(10, 10 * maximumSize);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 17;
+        h *= 0xed5ad4bb;
+        h ^= h >>> 11;
+        h *= 0xac4c1b51;
+        h ^= h >>> 15;
+        return h;
+    }
+
+    private int indexOf(int h, int row) {
+        long hash = (h + SEEDS[row]) * SEEDS[row];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+
+    /** Which of the 16 nibbles in the long this row uses. */
+    private static int nibble(int h, int row) {
+        return ((h >>> (row << 3)) & 15) << 2;
+    }
+
+    /** Estimated number of recent occurrences of key, 0..15. */
+    public int frequency(Object key) {
+        int h = spread(key.hashCode());
+        int min = 15;
+        for (int row = 0; row < 4; row++) {
+            int count = (int) ((table[indexOf(h, row)] >>> nibble(h, row)) & 15L);
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    /** Record one occurrence of key. */
+    public void increment(Object key) {
+        int h = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            int i = indexOf(h, row);
+            int shift = nibble(h, row);
+            if (((table[i] >>> shift) & 15L) != 15L) {
+                table[i] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /** Halve every counter. */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+}
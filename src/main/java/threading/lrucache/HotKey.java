@@ -0,0 +1,8 @@
+package threading.lrucache;
+
+/**
+ * A cached key with how hot it is: accesses counts reads and rewrites seen by the cache's
+ * LRU bookkeeping (a lower bound, as the read buffers drop some), idleNanos the time since
+ * the last one.
+ */
+public record HotKey<K>(K key, int accesses, long idleNanos) {}
@@ -0,0 +1,6 @@
+package threading.lrucache;
+
+/** A cache that can report a CacheStats snapshot. */
+public interface Instrumented {
+    CacheStats stats();
+}
@@ -0,0 +1,25 @@
+package threading.lrucache;
+
+import java.util.Collection;
+
+/**
+ * Carries key invalidations between NearCache instances, possibly in different JVMs.
+ *
+ * Delivery is best-effort and may include the publisher's own batches, so each batch
+ * carries the sender's id and listeners skip their own.
+ */
+public interface InvalidationBus<K> extends AutoCloseable {
+
+    interface Listener<K> {
+        void onInvalidate(long sender, Collection<K> keys);
+    }
+
+    void publish(long sender, Collection<K> keys);
+
+    void subscribe(Listener<K> listener);
+
+    void unsubscribe(Listener<K> listener);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,35 @@
+package threading.lrucache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Turns cache keys into bytes and back, for keys that leave the process. */
+public interface KeyCodec<K> {
+    byte[] encode(K key);
+
+    K decode(byte[] bytes);
+
+    static KeyCodec<String> strings() {
+        return new KeyCodec<>() {
+            public byte[] encode(String key) {
+                return key.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public String decode(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    static KeyCodec<Long> longs() {
+        return new KeyCodec<>() {
+            public byte[] encode(Long key) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(key).array();
+            }
+
+            public Long decode(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+        };
+    }
+}
@@ -15,9 +15,10 @@ class ListNode{
 }
 
 
-class LRUCache {
+class LRUCache implements Instrumented {
 
     int capacity;
+    private final StatsCounter stats=new StatsCounter();
     HashMap<Integer,ListNode> dic;
     ListNode head;
     ListNode tail;
@@ -31,8 +32,11 @@ class LRUCache {
     }
 
     public int get(int key) {
-        if(!dic.containsKey(key))
+        if(!dic.containsKey(key)){
+            stats.recordMiss();
             return -1;
+        }
+        stats.recordHit();
         ListNode node=dic.get(key);
         remove(node);
         add(node);
@@ -51,9 +55,16 @@ class LRUCache {
             ListNode deleteNode=head.next;
             remove(deleteNode);
             dic.remove(deleteNode.key);
+            stats.recordEviction(EvictionCause.SIZE);
         }
     }
 
+    // single-threaded, so there is no lock contention to report
+    @Override
+    public CacheStats stats(){
+        return stats.snapshot(dic.size(),capacity,0);
+    }
+
     public void add(ListNode node){
         ListNode previousEnd=tail.prev;
         previousEnd.next=node;
@@ -0,0 +1,332 @@
+package threading.lrucache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache that loads missing values through a CacheLoader, on top of SegmentedLRUCache.
+ *
+ * - Request coalescing: concurrent misses on one key share a single in-flight
+ *   CompletableFuture. The first thread runs the load and the rest wait on its result, so
+ *   a cold key costs the source one call however many threads ask for it.
+ * - Refresh-after-write: a hit on an entry older than refreshAfterWrite returns the current
+ *   value at once and reloads it in the background on the executor (again at most one
+ *   reload per key).
+ * - getAll() claims every missing key that is not already loading and fetches them with a
+ *   single loader.loadAll() call.
+ *
+ * Load failures surface as CompletionException and are not cached; the next get retries.
+ *
+ * A load races with put() and invalidate(): its value may have been read before them. Every
+ * load takes a per-stripe stamp first, as NearCache does, and its value is returned to the
+ * callers but not cached if a put or invalidate hit the key's stripe meanwhile.
+ */
+public class LoadingCache<K, V> implements Instrumented, AutoCloseable {
+    private static final int STAMP_STRIPES = 1024;
+
+    private final SegmentedLRUCache<K, Loaded<V>> cache;
+    private final CacheLoader<K, V> loader;
+    private final long refreshAfterWriteNanos;
+    private final Executor executor;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final StatsCounter stats = new StatsCounter();
+    // bumped before every put or invalidate of a key in the stripe
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+    /** Cached value plus the time it was loaded, for refresh-after-write. */
+    private record Loaded<V>(V value, long loadedAt) {}
+
+    public LoadingCache(int capacity, int segmentCount, CacheLoader<K, V> loader) {
+        this(capacity, segmentCount, loader, 0, TimeUnit.NANOSECONDS, ForkJoinPool.commonPool());
+    }
+
+    /** refreshAfterWrite of 0 disables background refresh. */
+    public LoadingCache(int capacity, int segmentCount, CacheLoader<K, V> loader,
+                        long refreshAfterWrite, TimeUnit unit, Executor executor) {
+        if (refreshAfterWrite < 0)
+            throw new IllegalArgumentException("refreshAfterWrite must be >= 0");
+        this.cache = new SegmentedLRUCache<>(capacity, segmentCount);
+        this.loader = Objects.requireNonNull(loader);
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /** Cached value for key, loading it on a miss; null if the loader has no value. */
+    public V get(K key) {
+        Objects.requireNonNull(key);
+        Loaded<V> hit = cache.get(key);
+        if (hit != null) {
+            stats.recordHit();
+            refreshIfStale(key, hit);
+            return hit.value();
+        }
+        stats.recordMiss();
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) return existing.join();
+        try {
+            // a load may have finished between our miss and our claim
+            hit = cache.get(key);
+            V value = hit != null ? hit.value() : loadAndStore(key);
+            mine.complete(value);
+            return value;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t instanceof CompletionException ce ? ce : new CompletionException(t);
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Like get(), but a miss is loaded on the executor instead of the calling thread. */
+    public CompletableFuture<V> getAsync(K key) {
+        Objects.requireNonNull(key);
+        Loaded<V> hit = cache.get(key);
+        if (hit != null) {
+            stats.recordHit();
+            refreshIfStale(key, hit);
+            return CompletableFuture.completedFuture(hit.value());
+        }
+        stats.recordMiss();
+        return loadAsync(key);
+    }
+
+    /**
+     * Values for all keys that have one. Hits are served from the cache. Misses not already
+     * loading elsewhere are fetched with one loader.loadAll() call on this thread, and misses
+     * already in flight are awaited.
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> claimed = new HashMap<>();
+        Map<K, CompletableFuture<V>> waiting = new HashMap<>();
+        for (K key : keys) {
+            Objects.requireNonNull(key);
+            if (result.containsKey(key) || claimed.containsKey(key) || waiting.containsKey(key)) continue;
+            Loaded<V> hit = cache.get(key);
+            if (hit != null) {
+                stats.recordHit();
+                refreshIfStale(key, hit);
+                result.put(key, hit.value());
+                continue;
+            }
+            stats.recordMiss();
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+            if (existing != null) {
+                waiting.put(key, existing);
+                continue;
+            }
+            // a load may have finished between our miss and our claim
+            hit = cache.get(key);
+            if (hit != null) {
+                inFlight.remove(key, mine);
+                mine.complete(hit.value());
+                result.put(key, hit.value());
+            } else {
+                claimed.put(key, mine);
+            }
+        }
+
+        if (!claimed.isEmpty()) {
+            Map<K, Long> loadStamps = new HashMap<>();
+            for (K key : claimed.keySet()) loadStamps.put(key, stamps.get(stripe(key)));
+            long start = System.nanoTime();
+            try {
+                Map<K, V> loaded = loader.loadAll(new LinkedHashSet<>(claimed.keySet()));
+                long now = System.nanoTime();
+                stats.recordLoadSuccess(now - start); // one batch = one load
+                for (Map.Entry<K, CompletableFuture<V>> e : claimed.entrySet()) {
+                    K key = e.getKey();
+                    V value = loaded == null ? null : loaded.get(key);
+                    if (value != null) storeLoaded(key, new Loaded<>(value, now), loadStamps.get(key));
+                    e.getValue().complete(value);
+                }
+            } catch (Throwable t) {
+                stats.recordLoadFailure(System.nanoTime() - start);
+                for (CompletableFuture<V> f : claimed.values()) f.completeExceptionally(t);
+                throw t instanceof CompletionException ce ? ce : new CompletionException(t);
+            } finally {
+                claimed.forEach(inFlight::remove);
+            }
+            claimed.forEach((key, f) -> putIfPresent(result, key, f.join()));
+        }
+        waiting.forEach((key, f) -> putIfPresent(result, key, f.join()));
+        return result;
+    }
+
+    /** Reload key in the background; the old value keeps being served until it completes. */
+    public CompletableFuture<V> refresh(K key) {
+        Objects.requireNonNull(key);
+        return loadAsync(key);
+    }
+
+    public void put(K key, V value) {
+        Loaded<V> loaded = new Loaded<>(Objects.requireNonNull(value), System.nanoTime());
+        stamps.incrementAndGet(stripe(key));
+        cache.put(key, loaded);
+    }
+
+    /** Drop key; a load already in flight for it returns its value but does not cache it. */
+    public void invalidate(K key) {
+        stamps.incrementAndGet(stripe(key));
+        cache.remove(key);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /** See SegmentedLRUCache.hottest(); used by CacheWarmer to pick what to persist. */
+    public List<HotKey<K>> hottest(int n) {
+        return cache.hottest(n);
+    }
+
+    /**
+     * Hits, misses and load times are counted by this cache (a miss that joins another thread's
+     * load is still a miss); evictions and segment occupancy come from the underlying cache.
+     */
+    @Override
+    public CacheStats stats() {
+        CacheStats inner = cache.stats();
+        CacheStats own = stats.snapshot(inner.segments());
+        return new CacheStats(own.hitCount(), own.missCount(), inner.evictionCounts(),
+                own.loadSuccessCount(), own.loadFailureCount(), own.totalLoadNanos(),
+                own.loadP50Nanos(), own.loadP90Nanos(), own.loadP99Nanos(), own.loadMaxNanos(),
+                own.loadHistogram(), inner.segments());
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+
+    private void refreshIfStale(K key, Loaded<V> hit) {
+        if (refreshAfterWriteNanos > 0 && System.nanoTime() - hit.loadedAt() >= refreshAfterWriteNanos
+                && !inFlight.containsKey(key)) {
+            loadAsync(key);
+        }
+    }
+
+    /** Start (or join) a load of key on the executor. */
+    private CompletableFuture<V> loadAsync(K key) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) return existing;
+        try {
+            executor.execute(() -> {
+                try {
+                    mine.complete(loadAndStore(key));
+                } catch (Throwable t) {
+                    mine.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, mine);
+                }
+            });
+        } catch (RuntimeException rejected) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(rejected);
+        }
+        return mine;
+    }
+
+    private V loadAndStore(K key) {
+        long stamp = stamps.get(stripe(key));
+        V value;
+        long start = System.nanoTime();
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            throw new CompletionException(e);
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        if (value != null) storeLoaded(key, new Loaded<>(value, System.nanoTime()), stamp);
+        return value;
+    }
+
+    /** Cache a loaded value unless key's stripe was put or invalidated since stamp was read. */
+    private void storeLoaded(K key, Loaded<V> loaded, long stamp) {
+        int i = stripe(key);
+        if (stamps.get(i) != stamp) return;
+        cache.put(key, loaded);
+        // a put or invalidate that bumped the stamp after the check may have finished before
+        // our put; drop the entry so the stale value does not outlive it
+        if (stamps.get(i) != stamp) cache.remove(key);
+    }
+
+    private static int stripe(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (STAMP_STRIPES - 1);
+    }
+
+    private static <K, V> void putIfPresent(Map<K, V> map, K key, V value) {
+        if (value != null) map.put(key, value);
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        CacheLoader<Integer, String> slowDb = new CacheLoader<>() {
+            @Override
+            public String load(Integer key) throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(100);
+                return "row-" + key + "-v" + loads.get();
+            }
+
+            @Override
+            public Map<Integer, String> loadAll(Set<? extends Integer> keys) throws Exception {
+                batches.incrementAndGet();
+                Thread.sleep(100);
+                Map<Integer, String> rows = new HashMap<>();
+                for (Integer k : keys) rows.put(k, "row-" + k);
+                return rows;
+            }
+        };
+
+        ExecutorService refresher = Executors.newFixedThreadPool(2);
+        try (LoadingCache<Integer, String> cache =
+                     new LoadingCache<>(1000, 4, slowDb, 300, TimeUnit.MILLISECONDS, refresher)) {
+            // thundering herd on one cold key
+            List<Thread> herd = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                Thread t = new Thread(() -> cache.get(42));
+                herd.add(t);
+                t.start();
+            }
+            for (Thread t : herd) t.join();
+            System.out.println("50 concurrent misses -> loads = " + loads.get() + ", value = " + cache.get(42));
+
+            Thread.sleep(400);
+            System.out.println("stale hit returns old value at once: " + cache.get(42));
+            Thread.sleep(200);
+            System.out.println("after background refresh: " + cache.get(42) + ", loads = " + loads.get());
+
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 100; i < 120; i++) keys.add(i);
+            Map<Integer, String> rows = cache.getAll(keys);
+            System.out.println("getAll(20 keys) -> " + rows.size() + " values in " + batches.get() + " batch");
+        } finally {
+            refresher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package threading.lrucache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** In-process bus: publish() calls every subscriber on the publishing thread. */
+public class LoopbackInvalidationBus<K> implements InvalidationBus<K> {
+    private final List<Listener<K>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(long sender, Collection<K> keys) {
+        List<K> batch = List.copyOf(keys);
+        for (Listener<K> l : listeners) {
+            l.onInvalidate(sender, batch);
+        }
+    }
+
+    @Override
+    public void subscribe(Listener<K> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(Listener<K> listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        listeners.clear();
+    }
+}
@@ -0,0 +1,147 @@
+package threading.lrucache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bus over UDP multicast on the loopback interface, so NearCaches in separate JVMs on one
+ * host (or one JVM, with one bus per cache) see each other's invalidations. Meant for tests
+ * and local multi-process setups; packets never leave the host.
+ *
+ * Each batch is split into datagrams of at most MAX_PACKET bytes:
+ *   int magic | long sender | short count | count x (short length | key bytes)
+ * UDP may drop or reorder datagrams, so a lost invalidation leaves a stale entry until it
+ * is evicted or rewritten. Pair this with a TTL when that matters. A key that encodes to
+ * more than MAX_KEY_BYTES cannot be sent at all: publish() logs and skips it and sends the
+ * rest of the batch.
+ */
+public class MulticastInvalidationBus<K> implements InvalidationBus<K> {
+    private static final int MAGIC = 0x4E43494E; // "NCIN"
+    private static final int MAX_PACKET = 1400;
+    private static final int HEADER = Integer.BYTES + Long.BYTES + Short.BYTES;
+
+    /** Longest encoded key publish() sends; longer ones are skipped. */
+    public static final int MAX_KEY_BYTES = 1024;
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    private final KeyCodec<K> codec;
+    private final List<Listener<K>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread receiver;
+
+    /** groupAddress must be a multicast address, e.g. 239.255.0.1. */
+    public MulticastInvalidationBus(String groupAddress, int port, KeyCodec<K> codec) {
+        this.codec = codec;
+        try {
+            InetAddress groupIp = InetAddress.getByName(groupAddress);
+            if (!groupIp.isMulticastAddress())
+                throw new IllegalArgumentException(groupAddress + " is not a multicast address");
+            this.group = new InetSocketAddress(groupIp, port);
+            NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+            channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                    .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                    .bind(new InetSocketAddress(port))
+                    .setOption(StandardSocketOptions.IP_MULTICAST_IF, loopback)
+                    .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true)
+                    .setOption(StandardSocketOptions.IP_MULTICAST_TTL, 0);
+            channel.join(groupIp, loopback);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot join multicast group " + groupAddress + ":" + port, e);
+        }
+        receiver = new Thread(this::receiveLoop, "invalidation-bus-" + port);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public void publish(long sender, Collection<K> keys) {
+        ByteBuffer packet = ByteBuffer.allocate(MAX_PACKET);
+        List<byte[]> pending = new ArrayList<>();
+        int bytes = HEADER;
+        for (K key : keys) {
+            byte[] encoded = codec.encode(key);
+            if (encoded.length > MAX_KEY_BYTES) {
+                // the caller has already dequeued the batch, so throwing would lose the rest of it
+                System.err.println("invalidation not sent, encoded key longer than " + MAX_KEY_BYTES + " bytes: " + key);
+                continue;
+            }
+            if (bytes + Short.BYTES + encoded.length > MAX_PACKET) {
+                send(packet, sender, pending);
+                pending.clear();
+                bytes = HEADER;
+            }
+            pending.add(encoded);
+            bytes += Short.BYTES + encoded.length;
+        }
+        if (!pending.isEmpty()) send(packet, sender, pending);
+    }
+
+    private void send(ByteBuffer packet, long sender, List<byte[]> keys) {
+        packet.clear();
+        packet.putInt(MAGIC).putLong(sender).putShort((short) keys.size());
+        for (byte[] k : keys) packet.putShort((short) k.length).put(k);
+        packet.flip();
+        try {
+            channel.send(packet, group);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        while (channel.isOpen()) {
+            try {
+                buf.clear();
+                channel.receive(buf);
+                buf.flip();
+                if (buf.remaining() < HEADER || buf.getInt() != MAGIC) continue; // not ours
+                long sender = buf.getLong();
+                int count = buf.getShort() & 0xffff;
+                List<K> keys = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] k = new byte[buf.getShort() & 0xffff];
+                    buf.get(k);
+                    keys.add(codec.decode(k));
+                }
+                for (Listener<K> l : listeners) l.onInvalidate(sender, keys);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // a bad datagram or listener must not kill the receiver
+                System.err.println("invalidation bus: " + e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Listener<K> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(Listener<K> listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        listeners.clear();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package threading.lrucache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-JVM SegmentedLRUCache kept coherent with its peers through an InvalidationBus.
+ *
+ * A local write (put or invalidate) applies to this cache at once and queues the key.
+ * Every tick the queued keys go out as one batch; a key written many times within a tick
+ * is sent once. Peers drop those keys, so their next read misses and fetches the new value
+ * from the source of truth. A peer can serve a stale value for up to one tick plus
+ * delivery time, and for longer if the bus loses a batch.
+ *
+ * A read-through load races with invalidations: the value read from the source may
+ * predate a write whose invalidation lands before the load is cached. So a loader takes a
+ * stamp with beginLoad() before reading the source, and putLoaded() drops the value if any
+ * write or invalidation for a key in the same stripe happened since. A collision only
+ * costs an extra miss.
+ *
+ * The flush timer holds the cache until close(), so close every NearCache.
+ */
+public class NearCache<K, V> implements Instrumented, AutoCloseable {
+    private static final int STAMP_STRIPES = 1024;
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "near-cache-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SegmentedLRUCache<K, V> local;
+    private final InvalidationBus<K> bus;
+    private final long nodeId = ThreadLocalRandom.current().nextLong();
+    private final Set<K> pending = ConcurrentHashMap.newKeySet();
+    // bumped before every write or invalidation of a key in the stripe
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final LongAdder published = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private InvalidationBus.Listener<K> listener; // set by open()
+    private ScheduledFuture<?> flusher;
+
+    /** Attach local to bus and start publishing queued invalidations every tick. */
+    public static <K, V> NearCache<K, V> open(SegmentedLRUCache<K, V> local, InvalidationBus<K> bus,
+                                              long tick, TimeUnit unit) {
+        if (tick <= 0) throw new IllegalArgumentException("tick must be > 0");
+        NearCache<K, V> cache = new NearCache<>(local, bus);
+        cache.start(tick, unit);
+        return cache;
+    }
+
+    private NearCache(SegmentedLRUCache<K, V> local, InvalidationBus<K> bus) {
+        this.local = Objects.requireNonNull(local);
+        this.bus = Objects.requireNonNull(bus);
+    }
+
+    private synchronized void start(long tick, TimeUnit unit) {
+        listener = this::onInvalidate;
+        bus.subscribe(listener);
+        flusher = FLUSHER.scheduleAtFixedRate(this::flushQuietly, tick, tick, unit);
+    }
+
+    public V get(K key) {
+        return local.get(key);
+    }
+
+    /** Cache value here and tell peers to drop their copy of key. */
+    public void put(K key, V value) {
+        bumpStamp(key);
+        local.put(key, value);
+        pending.add(key);
+    }
+
+    /** Call before reading key from the source of truth; pass the result to putLoaded(). */
+    public long beginLoad(K key) {
+        return stamps.get(stripe(key));
+    }
+
+    /**
+     * Cache a value that came from the source of truth; peers are not told, as nothing
+     * changed. Dropped if key was written or invalidated since beginLoad() returned stamp.
+     */
+    public void putLoaded(K key, V value, long stamp) {
+        int i = stripe(key);
+        if (stamps.get(i) != stamp) return;
+        local.put(key, value);
+        // an invalidation that bumped the stamp after the check may have run its remove
+        // before our put; undo the put so the stale value does not outlive it
+        if (stamps.get(i) != stamp) local.remove(key);
+    }
+
+    /** Drop key here and on every peer. */
+    public void invalidate(K key) {
+        bumpStamp(key);
+        local.remove(key);
+        pending.add(key);
+    }
+
+    private int stripe(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (STAMP_STRIPES - 1);
+    }
+
+    private void bumpStamp(K key) {
+        stamps.incrementAndGet(stripe(key));
+    }
+
+    /** Publish queued invalidations now rather than at the next tick. */
+    public void flush() {
+        if (pending.isEmpty()) return;
+        List<K> batch = new ArrayList<>(pending.size());
+        for (K key : pending) {
+            // remove-then-add: a key queued again during the publish goes in the next batch
+            if (pending.remove(key)) batch.add(key);
+        }
+        if (batch.isEmpty()) return;
+        bus.publish(nodeId, batch);
+        published.add(batch.size());
+    }
+
+    private void onInvalidate(long sender, Collection<K> keys) {
+        if (sender == nodeId) return;
+        for (K key : keys) {
+            bumpStamp(key);
+            local.remove(key);
+        }
+        received.add(keys.size());
+    }
+
+    /** Keys sent to peers and keys dropped on their behalf, since creation. */
+    public long publishedInvalidations() {
+        return published.sum();
+    }
+
+    public long receivedInvalidations() {
+        return received.sum();
+    }
+
+    public int size() {
+        return local.size();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return local.stats();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // keep ticking; the keys of a failed batch are lost, as with a dropped datagram
+            System.err.println("near cache flush failed: " + e);
+        }
+    }
+
+    /** Flush what is queued and detach from the bus; the bus and local cache stay open. */
+    @Override
+    public synchronized void close() {
+        flusher.cancel(false);
+        flush();
+        bus.unsubscribe(listener);
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        runNodes("loopback", new LoopbackInvalidationBus<>(), new LoopbackInvalidationBus<>(), true);
+        runNodes("multicast", new MulticastInvalidationBus<>("239.255.0.1", 45678, KeyCodec.strings()),
+                new MulticastInvalidationBus<>("239.255.0.1", 45678, KeyCodec.strings()), false);
+    }
+
+    /** Two "JVMs" sharing a key; with shared=true both nodes use busA. */
+    private static void runNodes(String label, InvalidationBus<String> busA, InvalidationBus<String> busB,
+                                 boolean shared) throws InterruptedException {
+        if (shared) busB = busA;
+        try (SegmentedLRUCache<String, String> cacheA = new SegmentedLRUCache<>(100, 4);
+             SegmentedLRUCache<String, String> cacheB = new SegmentedLRUCache<>(100, 4);
+             NearCache<String, String> a = NearCache.open(cacheA, busA, 50, TimeUnit.MILLISECONDS);
+             NearCache<String, String> b = NearCache.open(cacheB, busB, 50, TimeUnit.MILLISECONDS)) {
+            a.putLoaded("user:1", "alice@v1", a.beginLoad("user:1"));
+            long stamp = b.beginLoad("user:1");
+            b.putLoaded("user:1", "alice@v1", stamp);
+
+            for (int i = 2; i <= 5; i++) a.put("user:1", "alice@v" + i); // 4 writes in one tick
+            System.out.println(label + ": B right after A's writes: " + b.get("user:1"));
+            Thread.sleep(200);
+            System.out.println(label + ": B after one tick: " + b.get("user:1")
+                    + " (A published " + a.publishedInvalidations() + " key, B dropped " + b.receivedInvalidations() + ")");
+
+            long late = b.beginLoad("user:1"); // B starts reading the source...
+            a.put("user:1", "alice@v6");        // ...while A writes
+            a.flush();
+            Thread.sleep(200);
+            b.putLoaded("user:1", "alice@v5", late);
+            System.out.println(label + ": B after a load that raced A's write: " + b.get("user:1"));
+        } finally {
+            busA.close();
+            busB.close();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package threading.lrucache;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Segmented LRU cache for serialized values whose bytes live off-heap.
+ *
+ * Segments work as in SegmentedLRUCache: keys map to a segment by hash, and each segment
+ * has its own lock, LRU list and equal share of the byte budget. Heap usage per entry is
+ * one small index node: key, slab, chunk, length and LRU links. The value bytes sit in
+ * MemorySegment slabs allocated from a shared Arena, so the GC never scans them and heap
+ * size does not grow with cache size.
+ *
+ * Slab allocation, memcached-style:
+ * - Each segment carves its budget into fixed-size slabs, allocated lazily.
+ * - A slab is assigned to one chunk class (64 B, 128 B, ... up to the slab size) and split
+ *   into equal chunks. A value takes one chunk of the smallest class that fits.
+ * - Each chunk class has its own LRU list within the segment, since evicting an entry only
+ *   frees space of that entry's class. When a class runs out of room, it normally evicts its
+ *   own oldest entry. If another class holds a much older entry, the slab holding that
+ *   entry is emptied and reassigned instead. So the segment as a whole still evicts
+ *   roughly in LRU order.
+ *
+ * Values larger than the slab size are not cached. Rounding up to a chunk class wastes
+ * up to half of each chunk.
+ */
+public class OffHeapLRUCache<K> implements Instrumented, AutoCloseable {
+    private static final int MIN_CHUNK_SHIFT = 6; // 64 bytes
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private final Arena arena = Arena.ofShared();
+    private final int segmentCount;
+    private final Segment<K>[] segments;
+    private final StatsCounter statsCounter = new StatsCounter();
+
+    public OffHeapLRUCache(long maxBytes, int segmentCount) {
+        this(maxBytes, segmentCount, DEFAULT_SLAB_SIZE);
+    }
+
+    /** slabSize must be a power of two of at least 64 bytes; it is also the largest cacheable value. */
+    public OffHeapLRUCache(long maxBytes, int segmentCount, int slabSize) {
+        if (maxBytes <= 0 || segmentCount <= 0)
+            throw new IllegalArgumentException("maxBytes and segmentCount must be > 0");
+        if (slabSize < (1 << MIN_CHUNK_SHIFT) || Integer.bitCount(slabSize) != 1)
+            throw new IllegalArgumentException("slabSize must be a power of two >= 64");
+        long perSegment = maxBytes / segmentCount;
+        if (perSegment < slabSize)
+            throw new IllegalArgumentException("each segment needs at least one slab: maxBytes / segmentCount < slabSize");
+
+        this.segmentCount = segmentCount;
+        @SuppressWarnings("unchecked")
+        Segment<K>[] segments = (Segment<K>[]) new Segment<?>[segmentCount];
+        this.segments = segments;
+        int slabsPerSegment = (int) Math.min(Integer.MAX_VALUE, perSegment / slabSize);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(arena, slabsPerSegment, slabSize, statsCounter);
+        }
+    }
+
+    private Segment<K> segmentFor(Object key) {
+        int h = key.hashCode();
+        // spread bits to avoid clustering
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segmentCount];
+    }
+
+    /** Copy of the cached bytes for key, or null. */
+    public byte[] get(K key) {
+        Objects.requireNonNull(key);
+        return segmentFor(key).get(key);
+    }
+
+    /** Cache a copy of value; returns false (and drops any old value) if it is larger than a slab. */
+    public boolean put(K key, byte[] value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        return segmentFor(key).put(key, value);
+    }
+
+    public boolean remove(K key) {
+        Objects.requireNonNull(key);
+        return segmentFor(key).remove(key);
+    }
+
+    public int size() {
+        int total = 0;
+        for (Segment<K> seg : segments) total += seg.size();
+        return total;
+    }
+
+    /** Off-heap bytes held by live values (payload length, not chunk size). */
+    public long usedBytes() {
+        long total = 0;
+        for (Segment<K> seg : segments) total += seg.usedBytes();
+        return total;
+    }
+
+    /** Off-heap bytes reserved for slabs so far. */
+    public long reservedBytes() {
+        long total = 0;
+        for (Segment<K> seg : segments) total += seg.reservedBytes();
+        return total;
+    }
+
+    public void clear() {
+        for (Segment<K> seg : segments) seg.clear();
+    }
+
+    /** Segment size and capacity are in bytes: payload bytes held vs. the segment's slab budget. */
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            Segment<K> seg = segments[i];
+            segmentStats.add(new SegmentStats(i, seg.usedBytes(), (long) seg.slabs.length * seg.slabSize,
+                    seg.contention.sum()));
+        }
+        return statsCounter.snapshot(segmentStats);
+    }
+
+    /** Free all off-heap memory; the cache must not be used afterwards. */
+    @Override
+    public void close() {
+        for (Segment<K> seg : segments) seg.clear();
+        arena.close();
+    }
+
+    // -------- Slab: fixed-size off-heap block split into equal chunks --------
+    private static final class Slab {
+        final MemorySegment memory;
+        int index; // position in the owning segment's slab table
+        int chunkClass = -1;
+        int chunkSize;
+        int[] free; // stack of free chunk indices
+        int freeCount;
+        Node<?>[] owners; // entry stored in each chunk, for emptying the slab on reassignment
+
+        Slab(MemorySegment memory) {
+            this.memory = memory;
+        }
+
+        void assign(int chunkClass, int chunkSize) {
+            this.chunkClass = chunkClass;
+            this.chunkSize = chunkSize;
+            int chunks = (int) (memory.byteSize() / chunkSize);
+            if (free == null || free.length < chunks) free = new int[chunks];
+            if (owners == null || owners.length != chunks) owners = new Node<?>[chunks];
+            // hand out low offsets first
+            for (int i = 0; i < chunks; i++) free[i] = chunks - 1 - i;
+            freeCount = chunks;
+        }
+
+        int chunks() {
+            return (int) (memory.byteSize() / chunkSize);
+        }
+    }
+
+    // -------- Segment (LRU per chunk class over its own slabs) --------
+    private static final class Segment<K> {
+        private final Arena arena;
+        private final int slabSize;
+        private final Slab[] slabs;
+        private int slabsAllocated;
+        private final ArrayDeque<Slab> emptySlabs = new ArrayDeque<>();
+        private final ArrayDeque<Slab>[] partialSlabs; // per chunk class: slabs with a free chunk
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder contention = new LongAdder();
+        private final StatsCounter stats;
+        private final Map<K, Node<K>> index = new HashMap<>();
+        // one LRU list per chunk class, head = most recent
+        private final Node<K>[] heads;
+        private final Node<K>[] tails;
+        private long clock; // access ticks, to compare the LRU ends of different classes
+        private long usedBytes;
+
+        Segment(Arena arena, int maxSlabs, int slabSize, StatsCounter stats) {
+            this.arena = arena;
+            this.stats = stats;
+            this.slabSize = slabSize;
+            this.slabs = new Slab[maxSlabs];
+            int classes = Integer.numberOfTrailingZeros(slabSize) - MIN_CHUNK_SHIFT + 1;
+            @SuppressWarnings("unchecked")
+            ArrayDeque<Slab>[] partialSlabs = (ArrayDeque<Slab>[]) new ArrayDeque<?>[classes];
+            @SuppressWarnings("unchecked")
+            Node<K>[] heads = (Node<K>[]) new Node<?>[classes];
+            @SuppressWarnings("unchecked")
+            Node<K>[] tails = (Node<K>[]) new Node<?>[classes];
+            this.partialSlabs = partialSlabs;
+            this.heads = heads;
+            this.tails = tails;
+            for (int i = 0; i < classes; i++) {
+                partialSlabs[i] = new ArrayDeque<>();
+                heads[i] = new Node<>(null);
+                tails[i] = new Node<>(null);
+                heads[i].next = tails[i];
+                tails[i].prev = heads[i];
+            }
+        }
+
+        byte[] get(K key) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K> n = index.get(key);
+                if (n == null) {
+                    stats.recordMiss();
+                    return null;
+                }
+                stats.recordHit();
+                moveToFront(n);
+                byte[] out = new byte[n.length];
+                Slab slab = slabs[n.slab];
+                MemorySegment.copy(slab.memory, ValueLayout.JAVA_BYTE, (long) n.chunk * slab.chunkSize, out, 0, n.length);
+                return out;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean put(K key, byte[] value) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K> old = index.remove(key);
+                if (old != null) release(old);
+                if (value.length > slabSize) return false;
+
+                Node<K> n = new Node<>(key);
+                n.cls = chunkClass(value.length);
+                if (!allocate(n)) return false;
+                n.length = value.length;
+                Slab slab = slabs[n.slab];
+                MemorySegment.copy(value, 0, slab.memory, ValueLayout.JAVA_BYTE, (long) n.chunk * slab.chunkSize, value.length);
+                index.put(key, n);
+                insertAtFront(n);
+                usedBytes += value.length;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(K key) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K> n = index.remove(key);
+                if (n == null) return false;
+                release(n);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return index.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long usedBytes() {
+            lock.lock();
+            try {
+                return usedBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long reservedBytes() {
+            lock.lock();
+            try {
+                return (long) slabsAllocated * slabSize;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            StatsCounter.lock(lock, contention);
+            try {
+                index.clear();
+                for (int i = 0; i < heads.length; i++) {
+                    heads[i].next = tails[i];
+                    tails[i].prev = heads[i];
+                    partialSlabs[i].clear();
+                }
+                usedBytes = 0;
+                emptySlabs.clear();
+                for (int i = 0; i < slabsAllocated; i++) {
+                    Slab slab = slabs[i];
+                    if (slab.owners != null) Arrays.fill(slab.owners, null);
+                    slab.chunkClass = -1;
+                    slab.freeCount = 0; // no chunks to hand out until assign() refills the stack
+                    emptySlabs.add(slab);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // --- allocation (caller holds lock) ---
+        private static int chunkClass(int length) {
+            if (length <= (1 << MIN_CHUNK_SHIFT)) return 0;
+            return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_CHUNK_SHIFT;
+        }
+
+        /**
+         * Find a chunk of n's class, making room if needed. When no chunk is free and no slab
+         * is unassigned, compare the oldest entry of n's class with the oldest entry of any
+         * other class. Normally our own oldest entry is evicted and its chunk reused. If the
+         * other class's oldest entry has gone unused for more than twice as long, the slab
+         * holding it is emptied and reassigned instead. Memory then follows demand rather
+         * than staying with the first classes that were used.
+         */
+        private boolean allocate(Node<K> n) {
+            int cls = n.cls;
+            while (true) {
+                Slab slab = partialSlabs[cls].peekFirst();
+                if (slab != null) {
+                    n.slab = slab.index;
+                    n.chunk = slab.free[--slab.freeCount];
+                    slab.owners[n.chunk] = n;
+                    if (slab.freeCount == 0) partialSlabs[cls].pollFirst();
+                    return true;
+                }
+                Slab fresh = takeEmptySlab();
+                if (fresh != null) {
+                    fresh.assign(cls, 1 << (cls + MIN_CHUNK_SHIFT));
+                    partialSlabs[cls].addFirst(fresh);
+                    continue;
+                }
+                Node<K> own = oldest(cls);
+                Node<K> other = null;
+                for (int c = 0; c < heads.length; c++) {
+                    Node<K> candidate = c == cls ? null : oldest(c);
+                    if (candidate != null && (other == null || candidate.tick < other.tick)) other = candidate;
+                }
+                // reassign only for a clear age gap, since emptying a slab also evicts newer entries
+                if (own != null && (other == null || clock - other.tick <= 2 * (clock - own.tick))) {
+                    evict(own);
+                } else if (other != null) {
+                    evictSlab(slabs[other.slab]);
+                } else {
+                    return false; // nothing left to evict
+                }
+            }
+        }
+
+        private Node<K> oldest(int cls) {
+            Node<K> n = tails[cls].prev;
+            return n == heads[cls] ? null : n;
+        }
+
+        private void evict(Node<K> n) {
+            stats.recordEviction(EvictionCause.SIZE);
+            index.remove(n.key);
+            release(n);
+        }
+
+        /** Evict every entry in slab; the last release returns it to emptySlabs. */
+        @SuppressWarnings("unchecked")
+        private void evictSlab(Slab slab) {
+            Node<K>[] owners = (Node<K>[]) slab.owners;
+            for (int i = 0; i < owners.length; i++) {
+                if (owners[i] != null) evict(owners[i]);
+            }
+        }
+
+        private Slab takeEmptySlab() {
+            Slab slab = emptySlabs.pollFirst();
+            if (slab != null || slabsAllocated == slabs.length) return slab;
+            slab = new Slab(arena.allocate(slabSize, 64));
+            slab.index = slabsAllocated;
+            slabs[slabsAllocated++] = slab;
+            return slab;
+        }
+
+        /** Unlink n and return its chunk; a slab that becomes empty goes back to the pool. */
+        private void release(Node<K> n) {
+            removeNode(n);
+            usedBytes -= n.length;
+            Slab slab = slabs[n.slab];
+            slab.owners[n.chunk] = null;
+            slab.free[slab.freeCount++] = n.chunk;
+            ArrayDeque<Slab> partial = partialSlabs[slab.chunkClass];
+            if (slab.freeCount == slab.chunks()) {
+                partial.remove(slab);
+                slab.chunkClass = -1;
+                emptySlabs.addLast(slab);
+            } else if (slab.freeCount == 1) {
+                partial.addLast(slab);
+            }
+        }
+
+        // --- Doubly-linked list ops ---
+        private void moveToFront(Node<K> n) {
+            removeNode(n);
+            insertAtFront(n);
+        }
+
+        private void insertAtFront(Node<K> n) {
+            Node<K> head = heads[n.cls];
+            n.tick = ++clock;
+            n.next = head.next;
+            n.prev = head;
+            head.next.prev = n;
+            head.next = n;
+        }
+
+        private void removeNode(Node<K> n) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+            n.prev = n.next = null;
+        }
+    }
+
+    // -------- Node: the only per-entry heap object --------
+    private static final class Node<K> {
+        final K key;
+        int slab;
+        int chunk;
+        int length;
+        int cls;   // chunk class, selects the LRU list
+        long tick; // segment clock at last access
+        Node<K> prev, next;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws InterruptedException {
+        // 64 MB budget over 8 segments, 64 KB slabs (128 per segment)
+        try (OffHeapLRUCache<String> cache = new OffHeapLRUCache<>(64L << 20, 8, 1 << 16)) {
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                final int id = t;
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        // 100 B .. ~16 KB payloads
+                        byte[] value = new byte[100 + (i * 37 % 16_000)];
+                        value[0] = (byte) id;
+                        cache.put("w" + id + "-" + i, value);
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread t : writers) t.join();
+
+            // after the churn, a fresh batch of ~8 MB must fit entirely in the 64 MB budget
+            for (int i = 0; i < 1_000; i++) cache.put("fresh-" + i, new byte[100 + (i * 37 % 16_000)]);
+            int recentHits = 0;
+            for (int i = 0; i < 1_000; i++) {
+                if (cache.get("fresh-" + i) != null) recentHits++;
+            }
+            System.out.println("live entries = " + cache.size() + ", used = " + (cache.usedBytes() >> 20)
+                    + " MB, reserved = " + (cache.reservedBytes() >> 20) + " MB");
+            System.out.println("fresh batch still cached = " + recentHits
+                    + ", oldest evicted = " + (cache.get("w0-0") == null));
+            System.out.println("128 KB value accepted with 64 KB slabs: " + cache.put("huge", new byte[128 << 10]));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package threading.lrucache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Striped, lossy ring buffers that record cache reads so the LRU list can be reordered in
+ * batches instead of taking the list lock on every hit.
+ *
+ * - offer() is lock-free: the calling thread picks a stripe by its thread id and claims a slot
+ *   with one CAS. If the stripe is full or the CAS loses, the access is dropped; LRU order
+ *   only needs to be approximately right, so losing a few reorderings is fine.
+ * - drainTo() must be called by one thread at a time (the owner holds its list lock).
+ */
+final class ReadBuffer<E> {
+    static final int BUFFER_SIZE = 16;
+    private static final int MASK = BUFFER_SIZE - 1;
+    /** offer() asks the caller to drain once a stripe holds this many pending reads. */
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    private final Stripe<E>[] stripes;
+    private final int stripeMask;
+
+    ReadBuffer() {
+        int n = 1;
+        while (n < 4 * Runtime.getRuntime().availableProcessors()) n <<= 1;
+        @SuppressWarnings("unchecked")
+        Stripe<E>[] stripes = (Stripe<E>[]) new Stripe<?>[Math.min(n, 64)];
+        this.stripes = stripes;
+        this.stripeMask = stripes.length - 1;
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe<>();
+    }
+
+    private static int probe() {
+        int h = (int) Thread.currentThread().threadId() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Record e; returns true if the caller should try to drain. */
+    boolean offer(E e) {
+        Stripe<E> s = stripes[probe() & stripeMask];
+        long head = s.readCounter;
+        long tail = s.writeCounter.get();
+        long pending = tail - head;
+        if (pending >= BUFFER_SIZE) return true; // full: drop this read
+        if (s.writeCounter.compareAndSet(tail, tail + 1)) {
+            s.buffer.lazySet((int) (tail & MASK), e);
+            return pending + 1 >= DRAIN_THRESHOLD;
+        }
+        return false; // contended: drop this read
+    }
+
+    /** Hand every published entry to consumer, in per-stripe order. */
+    void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> s : stripes) {
+            long head = s.readCounter;
+            long tail = s.writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                E e = s.buffer.get(index);
+                if (e == null) break; // claimed but not yet published; pick it up next time
+                s.buffer.lazySet(index, null);
+                consumer.accept(e);
+            }
+            s.readCounter = head;
+        }
+    }
+
+    private static final class Stripe<E> {
+        final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+        final AtomicLong writeCounter = new AtomicLong();
+        volatile long readCounter;
+    }
+}
@@ -0,0 +1,13 @@
+package threading.lrucache;
+
+/**
+ * Occupancy and lock contention of one cache segment (the whole cache for unsegmented caches).
+ *
+ * @param capacity       entry or weight bound of the segment
+ * @param lockContention acquisitions that found the segment lock already held
+ */
+public record SegmentStats(int segment, long size, long capacity, long lockContention) {
+    public double occupancy() {
+        return capacity == 0 ? 0 : (double) size / capacity;
+    }
+}
@@ -0,0 +1,17 @@
+package threading.lrucache;
+
+/**
+ * What SegmentedLRUCacheVersion2, ArcCache and ClockProCache have in common, so callers can
+ * swap eviction policies. Sizes are summed segment by segment and are not atomic.
+ */
+public interface SegmentedCache<K, V> extends Instrumented {
+    V get(K key);
+
+    void put(K key, V value);
+
+    /** Resident entries. */
+    int totalSize();
+
+    /** Total weight of the resident entries; equals totalSize() when every entry weighs 1. */
+    long weightedSize();
+}
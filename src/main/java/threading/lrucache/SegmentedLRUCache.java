@@ -1,30 +1,85 @@
 package threading.lrucache;
 
+import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
+import java.util.PriorityQueue;
 
 /**
  * Segmented (sharded) thread-safe LRU Cache.
  * Each segment has its own lock and LRU list.
+ * Reads are recorded in a per-segment ReadBuffer and applied to the list in batches
+ * under tryLock, so hits don't contend on the segment lock.
+ *
+ * Expiry: put(key, value, ttl, unit) gives an entry a time-to-live from its last write, and
+ * the expireAfterAccess constructor makes every entry expire once it has gone unread for
+ * that long. get() never returns an expired entry. Each segment also tracks deadlines in a
+ * TimerWheel that is advanced on writes, on read-buffer drains, and by a shared background
+ * ticker about once a second. Expired entries are therefore removed even when the cache is
+ * idle or below capacity. Wheel buckets span ~1.07s, so removal can trail a deadline by one
+ * bucket plus one ticker period: size() may still count an expired entry for about 2s.
+ *
+ * Weight: with a Weigher the bound is a maximum total weight (e.g. bytes) instead of an
+ * entry count. Each segment owns an equal share of the budget and tracks its own weighted
+ * size under its lock, evicting from the LRU end until it is back under its share.
  */
-public class SegmentedLRUCache<K, V> {
-    private final int capacity;
+public class SegmentedLRUCache<K, V> implements Instrumented, AutoCloseable {
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final ScheduledExecutorService TICKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lru-expiry-ticker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long maximumWeight;
     private final int segmentCount;
     private final Segment<K, V>[] segments;
+    private final StatsCounter statsCounter = new StatsCounter();
+    private final Object tickerLock = new Object();
+    private volatile ScheduledFuture<?> ticker;
+    private volatile boolean closed;
 
-    @SuppressWarnings("unchecked")
     public SegmentedLRUCache(int capacity, int segmentCount) {
-        if (capacity <= 0 || segmentCount <= 0)
+        this(capacity, segmentCount, Weigher.singleton(), 0, TimeUnit.NANOSECONDS);
+    }
+
+    /** expireAfterAccess of 0 disables access-based expiry. */
+    public SegmentedLRUCache(int capacity, int segmentCount, long expireAfterAccess, TimeUnit unit) {
+        this(capacity, segmentCount, Weigher.singleton(), expireAfterAccess, unit);
+    }
+
+    /** Bounded by the total weigher-reported weight of the entries instead of their count. */
+    public SegmentedLRUCache(long maximumWeight, int segmentCount, Weigher<? super K, ? super V> weigher) {
+        this(maximumWeight, segmentCount, weigher, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public SegmentedLRUCache(long maximumWeight, int segmentCount, Weigher<? super K, ? super V> weigher,
+                             long expireAfterAccess, TimeUnit unit) {
+        if (maximumWeight <= 0 || segmentCount <= 0)
             throw new IllegalArgumentException("capacity and segmentCount must be > 0");
+        if (expireAfterAccess < 0)
+            throw new IllegalArgumentException("expireAfterAccess must be >= 0");
+        Objects.requireNonNull(weigher);
 
-        this.capacity = capacity;
+        this.maximumWeight = maximumWeight;
         this.segmentCount = segmentCount;
-        this.segments = new Segment[segmentCount];
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        this.segments = segments;
 
-        int perSegment = (int) Math.ceil((double) capacity / segmentCount);
+        long accessNanos = unit.toNanos(expireAfterAccess);
+        long perSegment = (maximumWeight + segmentCount - 1) / segmentCount;
         for (int i = 0; i < segmentCount; i++) {
-            segments[i] = new Segment<>(perSegment);
+            segments[i] = new Segment<>(this, perSegment, weigher, accessNanos);
         }
     }
 
@@ -40,7 +95,14 @@ public class SegmentedLRUCache<K, V> {
     }
 
     public void put(K key, V value) {
-        segmentFor(key).put(key, value);
+        segmentFor(key).put(key, value, 0);
+    }
+
+    /** Put with a time-to-live measured from this write; a later plain put() clears it. */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        if (ttl <= 0)
+            throw new IllegalArgumentException("ttl must be > 0");
+        segmentFor(key).put(key, value, unit.toNanos(ttl));
     }
 
     public V remove(K key) {
@@ -55,24 +117,128 @@ public class SegmentedLRUCache<K, V> {
         return total;
     }
 
+    /** Sum of entry weights (the entry count without a Weigher); not atomic across segments. */
+    public long weightedSize() {
+        long total = 0;
+        for (Segment<K, V> seg : segments) {
+            total += seg.weightedSize;
+        }
+        return total;
+    }
+
     public void clear() {
         for (Segment<K, V> seg : segments) {
             seg.clear();
         }
     }
 
+    /** Most accessed first; among equal counts, most recently used first. */
+    private static final Comparator<HotKey<?>> HOTTEST_FIRST =
+            Comparator.comparingInt((HotKey<?> h) -> h.accesses()).reversed()
+                    .thenComparingLong(HotKey::idleNanos);
+
+    /**
+     * Up to n keys with the most accesses, ties broken by recency, hottest first. Each
+     * segment is walked in full under its lock, keeping its top n in a heap, so this costs
+     * O(size log n); reads still sitting in the read buffers are drained first.
+     */
+    public List<HotKey<K>> hottest(int n) {
+        if (n < 0) throw new IllegalArgumentException("n must be >= 0");
+        long now = System.nanoTime();
+        List<HotKey<K>> all = new ArrayList<>();
+        for (Segment<K, V> seg : segments) {
+            seg.collectHottest(n, now, all);
+        }
+        all.sort(HOTTEST_FIRST);
+        return all.size() > n ? new ArrayList<>(all.subList(0, n)) : all;
+    }
+
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            Segment<K, V> seg = segments[i];
+            segmentStats.add(new SegmentStats(i, seg.weightedSize, seg.maxWeight, seg.contention.sum()));
+        }
+        return statsCounter.snapshot(segmentStats);
+    }
+
+    /** Remove every expired entry now rather than waiting for the next tick. */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        for (Segment<K, V> seg : segments) {
+            seg.cleanUp(now);
+        }
+    }
+
+    /** Stop the background expiry ticker; the cache stays usable. */
+    @Override
+    public void close() {
+        synchronized (tickerLock) {
+            closed = true;
+            if (ticker != null) ticker.cancel(false);
+        }
+    }
+
+    /** Started on the first expiring entry. */
+    private void startTicker() {
+        if (ticker != null || closed) return;
+        synchronized (tickerLock) {
+            if (ticker != null || closed) return;
+            Ticker tick = new Ticker(this);
+            ticker = tick.future = TICKER.scheduleAtFixedRate(tick, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** Holds the cache weakly so a cache that was never closed can still be collected. */
+    private static final class Ticker implements Runnable {
+        private final WeakReference<SegmentedLRUCache<?, ?>> cache;
+        volatile ScheduledFuture<?> future;
+
+        Ticker(SegmentedLRUCache<?, ?> cache) {
+            this.cache = new WeakReference<>(cache);
+        }
+
+        @Override
+        public void run() {
+            SegmentedLRUCache<?, ?> c = cache.get();
+            if (c != null) {
+                c.cleanUp();
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
     // -------- Segment (mini LRU) --------
-    private static class Segment<K, V> {
-        private final int capacity;
+    private static class Segment<K, V> implements TimerWheel.Expirer {
+        private final SegmentedLRUCache<K, V> cache;
+        private final long maxWeight;
+        private final Weigher<? super K, ? super V> weigher;
+        private final boolean weighted;
+        private final long expireAfterAccessNanos;
         private final ConcurrentHashMap<K, Node<K, V>> map;
         private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder contention = new LongAdder();
+        private final StatsCounter stats;
+        private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+        private final TimerWheel timerWheel = new TimerWheel(System.nanoTime());
+        private long drainTime; // guarded by lock
 
         private final Node<K, V> head;
         private final Node<K, V> tail;
+        // sum of the weights of linked nodes; written under lock, read lock-free by weightedSize()
+        private volatile long weightedSize;
 
-        Segment(int capacity) {
-            this.capacity = capacity;
-            this.map = new ConcurrentHashMap<>(capacity * 2);
+        Segment(SegmentedLRUCache<K, V> cache, long maxWeight, Weigher<? super K, ? super V> weigher,
+                long expireAfterAccessNanos) {
+            this.cache = cache;
+            this.stats = cache.statsCounter;
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            this.weighted = weigher != Weigher.singleton();
+            this.expireAfterAccessNanos = expireAfterAccessNanos;
+            this.map = new ConcurrentHashMap<>(weighted ? 16 : (int) Math.min(maxWeight * 2, 1 << 20));
             this.head = new Node<>(null, null);
             this.tail = new Node<>(null, null);
             head.next = tail;
@@ -81,48 +247,105 @@ public class SegmentedLRUCache<K, V> {
 
         V get(K key) {
             Node<K, V> node = map.get(key);
-            if (node == null) return null;
-            moveToFront(node);
+            if (node == null) {
+                stats.recordMiss();
+                return null;
+            }
+            if (node.ttlNanos > 0 || expireAfterAccessNanos > 0) {
+                long now = System.nanoTime();
+                if (isExpired(node, now)) { // the wheel will collect it
+                    stats.recordMiss();
+                    return null;
+                }
+                // read-only timestamp bump; the wheel sees the later deadline when it fires
+                if (expireAfterAccessNanos > 0) node.accessTime = now;
+            }
+            stats.recordHit();
+            recordRead(node);
             return node.value;
         }
 
-        void put(K key, V value) {
+        void put(K key, V value, long ttlNanos) {
+            boolean expiring = ttlNanos > 0 || expireAfterAccessNanos > 0;
+            long now = expiring ? System.nanoTime() : 0;
+            int weight = weigh(key, value);
+            if (weight > maxWeight) {
+                // could never fit: don't flush the segment for it, and don't keep the old value
+                remove(key);
+                return;
+            }
             Node<K, V> existing = map.get(key);
             if (existing != null) {
-                existing.value = value;
-                moveToFront(existing);
+                update(existing, value, weight, ttlNanos, now);
                 return;
             }
 
             Node<K, V> newNode = new Node<>(key, value);
+            newNode.weight = weight;
+            newNode.ttlNanos = ttlNanos;
+            newNode.writeTime = newNode.accessTime = now;
             Node<K, V> prev = map.putIfAbsent(key, newNode);
             if (prev != null) {
-                prev.value = value;
-                moveToFront(prev);
+                update(prev, value, weight, ttlNanos, now);
                 return;
             }
 
-            lock.lock();
+            StatsCounter.lock(lock, contention);
             try {
+                drainReadBuffer();
+                if (map.get(key) != newNode) return; // removed before we linked it
+                newNode.lastAccess = System.nanoTime();
                 insertAtFront(newNode);
-                if (map.size() > capacity) {
-                    Node<K, V> lru = tail.prev;
-                    if (lru != head) {
-                        removeNode(lru);
-                        map.remove(lru.key);
-                    }
+                // read back from the node: an update() racing in before the link may have
+                // changed its weight and TTL, and only we can account for them now
+                weightedSize += newNode.weight;
+                if (newNode.ttlNanos > 0 || expireAfterAccessNanos > 0) {
+                    schedule(newNode);
+                    timerWheel.advance(newNode.lastAccess, this);
+                }
+                evictIfOverweight();
+            } finally {
+                lock.unlock();
+            }
+            if (ttlNanos > 0 || expireAfterAccessNanos > 0) cache.startTicker();
+        }
+
+        private void update(Node<K, V> node, V value, int weight, long ttlNanos, long now) {
+            boolean wasExpiring = node.ttlNanos > 0 || expireAfterAccessNanos > 0;
+            node.value = value;
+            node.ttlNanos = ttlNanos;
+            node.writeTime = node.accessTime = now;
+            if (!weighted && !wasExpiring && ttlNanos <= 0) {
+                recordRead(node);
+                return;
+            }
+            // weight may change and the deadline may move earlier, so apply both now
+            StatsCounter.lock(lock, contention);
+            try {
+                drainReadBuffer();
+                if (node.prev != null) {
+                    weightedSize += weight - node.weight;
+                    moveToFront(node);
+                    if (ttlNanos > 0 || expireAfterAccessNanos > 0) schedule(node);
+                    else timerWheel.deschedule(node);
                 }
+                // not linked yet: the inserting thread accounts this weight and schedules this
+                // TTL when it links the node
+                node.weight = weight;
+                if (wasExpiring || ttlNanos > 0) timerWheel.advance(System.nanoTime(), this);
+                evictIfOverweight();
             } finally {
                 lock.unlock();
             }
+            if (ttlNanos > 0 || expireAfterAccessNanos > 0) cache.startTicker();
         }
 
         V remove(K key) {
             Node<K, V> node = map.remove(key);
             if (node == null) return null;
-            lock.lock();
+            StatsCounter.lock(lock, contention);
             try {
-                removeNode(node);
+                detach(node);
             } finally {
                 lock.unlock();
             }
@@ -134,25 +357,156 @@ public class SegmentedLRUCache<K, V> {
         }
 
         void clear() {
-            lock.lock();
+            StatsCounter.lock(lock, contention);
             try {
                 map.clear();
-                head.next = tail;
-                tail.prev = head;
+                unlinkAll();
+                weightedSize = 0;
+                timerWheel.clear();
             } finally {
                 lock.unlock();
             }
         }
 
-        // --- Doubly-linked list ops ---
-        private void moveToFront(Node<K, V> node) {
-            lock.lock();
+        void cleanUp(long now) {
+            StatsCounter.lock(lock, contention);
             try {
-                removeNode(node);
-                insertAtFront(node);
+                drainReadBuffer();
+                timerWheel.advance(now, this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // --- Expiry (caller holds lock) ---
+        private boolean isExpired(Node<K, V> node, long now) {
+            return (node.ttlNanos > 0 && now - node.writeTime >= node.ttlNanos)
+                    || (expireAfterAccessNanos > 0 && now - node.accessTime >= expireAfterAccessNanos);
+        }
+
+        private long deadline(Node<K, V> node) {
+            if (node.ttlNanos <= 0) return node.accessTime + expireAfterAccessNanos;
+            long writeDeadline = node.writeTime + node.ttlNanos;
+            if (expireAfterAccessNanos <= 0) return writeDeadline;
+            long accessDeadline = node.accessTime + expireAfterAccessNanos;
+            return accessDeadline - writeDeadline < 0 ? accessDeadline : writeDeadline;
+        }
+
+        private void schedule(Node<K, V> node) {
+            node.expiresAt = deadline(node);
+            timerWheel.reschedule(node);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean expire(TimerWheel.Timed timed, long now) {
+            Node<K, V> node = (Node<K, V>) timed;
+            if (node.prev == null) return true; // already gone from the list
+            if (!isExpired(node, now)) {
+                node.expiresAt = deadline(node); // read or rewritten since it was scheduled
+                return false;
+            }
+            detach(node);
+            map.remove(node.key, node);
+            stats.recordEviction(EvictionCause.EXPIRED);
+            return true;
+        }
+
+        // --- Read buffering ---
+        private void recordRead(Node<K, V> node) {
+            if (readBuffer.offer(node) && lock.tryLock()) {
+                try {
+                    drainReadBuffer();
+                    if (expireAfterAccessNanos > 0) timerWheel.advance(System.nanoTime(), this);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // caller holds lock
+        private void drainReadBuffer() {
+            drainTime = System.nanoTime();
+            readBuffer.drainTo(this::touch);
+        }
+
+        // a drained read: count the access, then move it to the front
+        private void touch(Node<K, V> node) {
+            if (node.prev == null) return;
+            if (node.accesses < Integer.MAX_VALUE) node.accesses++;
+            node.lastAccess = drainTime;
+            moveToFront(node);
+        }
+
+        /** Add up to n entries from the MRU end to out. */
+        void collectHottest(int n, long now, List<HotKey<K>> out) {
+            if (n == 0) return;
+            // coldest kept entry on top, so it is the one a hotter node replaces
+            PriorityQueue<HotKey<K>> top = new PriorityQueue<>(n, HOTTEST_FIRST.reversed());
+            StatsCounter.lock(lock, contention);
+            try {
+                drainReadBuffer();
+                for (Node<K, V> node = head.next; node != tail; node = node.next) {
+                    HotKey<K> h = new HotKey<>(node.key, node.accesses, Math.max(0, now - node.lastAccess));
+                    if (top.size() < n) {
+                        top.add(h);
+                    } else if (HOTTEST_FIRST.compare(h, top.peek()) < 0) {
+                        top.poll();
+                        top.add(h);
+                    }
+                }
             } finally {
                 lock.unlock();
             }
+            out.addAll(top);
+        }
+
+        // --- Doubly-linked list ops (caller holds lock) ---
+        private void moveToFront(Node<K, V> node) {
+            // evicted or removed since the read was recorded
+            if (node.prev == null) return;
+            removeNode(node);
+            insertAtFront(node);
+        }
+
+        // --- Weight ---
+        private int weigh(K key, V value) {
+            int weight = weigher.weigh(key, value);
+            if (weight < 0)
+                throw new IllegalArgumentException("negative weight " + weight + " for key " + key);
+            return weight;
+        }
+
+        /** Evict from the LRU end until the segment is back within its share of the budget; caller holds lock. */
+        private void evictIfOverweight() {
+            while (weightedSize > maxWeight) {
+                Node<K, V> lru = tail.prev;
+                if (lru == head) break;
+                detach(lru);
+                map.remove(lru.key, lru);
+                stats.recordEviction(EvictionCause.SIZE);
+            }
+        }
+
+        /** Drop an entry from the list and the wheel, releasing its weight; caller holds lock. */
+        private void detach(Node<K, V> node) {
+            if (node.prev != null) {
+                removeNode(node);
+                weightedSize -= node.weight;
+            }
+            timerWheel.deschedule(node);
+        }
+
+        // null every link so buffered reads of old nodes are skipped
+        private void unlinkAll() {
+            Node<K, V> node = head.next;
+            while (node != tail) {
+                Node<K, V> next = node.next;
+                node.prev = node.next = null;
+                node = next;
+            }
+            head.next = tail;
+            tail.prev = head;
         }
 
         private void insertAtFront(Node<K, V> node) {
@@ -173,15 +527,60 @@ public class SegmentedLRUCache<K, V> {
     }
 
     // -------- Node --------
-    private static final class Node<K, V> {
+    private static final class Node<K, V> extends TimerWheel.Timed {
         final K key;
         volatile V value;
         Node<K, V> prev, next;
+        int weight; // guarded by the segment lock
+        // hotness metadata for hottest(), guarded by the segment lock
+        int accesses;
+        long lastAccess;
+        // expiry bookkeeping (System.nanoTime based); ttlNanos 0 = no per-entry TTL
+        volatile long ttlNanos;
+        volatile long writeTime;
+        volatile long accessTime;
 
         Node(K key, V value) {
             this.key = key;
             this.value = value;
         }
     }
-}
 
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws InterruptedException {
+        try (SegmentedLRUCache<String, String> sessions = new SegmentedLRUCache<>(1000, 4)) {
+            for (int i = 0; i < 100; i++) {
+                // odd tokens live 1s, even ones 5s
+                sessions.put("token-" + i, "user-" + i, i % 2 == 1 ? 1 : 5, TimeUnit.SECONDS);
+            }
+            sessions.put("pinned", "admin");
+            System.out.println("size at start = " + sessions.size());
+            // removal may trail a deadline by ~2s (see the class doc)
+            Thread.sleep(3500);
+            // no reads or writes in between: the background ticker did the removals
+            System.out.println("size after 3.5s = " + sessions.size()
+                    + ", token-1 = " + sessions.get("token-1") + ", token-2 = " + sessions.get("token-2"));
+            Thread.sleep(4000);
+            System.out.println("size after 7.5s = " + sessions.size() + ", pinned = " + sessions.get("pinned"));
+        }
+
+        try (SegmentedLRUCache<Integer, Integer> idle = new SegmentedLRUCache<>(100, 2, 1, TimeUnit.SECONDS)) {
+            idle.put(1, 1);
+            idle.put(2, 2);
+            for (int i = 0; i < 6; i++) {
+                Thread.sleep(300);
+                idle.get(1); // keeps key 1 alive
+            }
+            System.out.println("expireAfterAccess: key1 = " + idle.get(1) + ", key2 = " + idle.get(2));
+        }
+
+        // byte-budgeted: 1 MB across 4 segments, values from 100 B to 200 KB
+        SegmentedLRUCache<Integer, byte[]> blobs =
+                new SegmentedLRUCache<>(1 << 20, 4, (Integer k, byte[] v) -> v.length);
+        for (int i = 0; i < 200; i++) {
+            blobs.put(i, new byte[i % 10 == 0 ? 200_000 : 100]);
+        }
+        System.out.println("weighted: entries = " + blobs.size() + ", bytes = " + blobs.weightedSize()
+                + " (budget " + (1 << 20) + ")");
+    }
+}
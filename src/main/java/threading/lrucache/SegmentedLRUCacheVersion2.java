@@ -3,28 +3,42 @@ package threading.lrucache;
 
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
 
-public class SegmentedLRUCacheVersion2<K, V> {
+public class SegmentedLRUCacheVersion2<K, V> implements SegmentedCache<K, V> {
     private final int numSegments;
+    private final StatsCounter statsCounter = new StatsCounter();
     private final CoarseLockLRUCache<K, V>[] segments;
     private final int segmentMask;
 
-    @SuppressWarnings("unchecked")
     public SegmentedLRUCacheVersion2(int totalCapacity, int segmentsCount) {
+        this(totalCapacity, segmentsCount, Weigher.singleton());
+    }
+
+    /**
+     * Bounded by total entry weight (e.g. bytes) instead of count; each segment gets an equal
+     * share of maximumWeight and accounts for it under its own lock.
+     */
+    public SegmentedLRUCacheVersion2(long maximumWeight, int segmentsCount, Weigher<? super K, ? super V> weigher) {
         if (segmentsCount <= 0) throw new IllegalArgumentException("segments > 0");
+        if (maximumWeight <= 0) throw new IllegalArgumentException("maximumWeight > 0");
         // make segments power of two for fast masking
         int s = 1;
         while (s < segmentsCount) s <<= 1;
         this.numSegments = s;
         this.segmentMask = s - 1;
-        int perSegment = Math.max(1, totalCapacity / s);
-        this.segments = new CoarseLockLRUCache[s];
+        long perSegment = Math.max(1, maximumWeight / s);
+        @SuppressWarnings("unchecked")
+        CoarseLockLRUCache<K, V>[] segments = (CoarseLockLRUCache<K, V>[]) new CoarseLockLRUCache<?, ?>[s];
+        this.segments = segments;
         for (int i = 0; i < s; i++) {
-            this.segments[i] = new CoarseLockLRUCache<>(perSegment);
+            this.segments[i] = new CoarseLockLRUCache<>(perSegment, weigher, statsCounter);
         }
     }
 
@@ -40,21 +54,41 @@ public class SegmentedLRUCacheVersion2<K, V> {
         return segments[idx];
     }
 
+    @Override
     public V get(K key) {
         return segmentFor(key).get(key);
     }
 
+    @Override
     public void put(K key, V value) {
         segmentFor(key).put(key, value);
     }
 
     // For tests only; not atomic across segments
+    @Override
     public int totalSize() {
         int sum = 0;
         for (CoarseLockLRUCache<K, V> seg : segments) sum += seg.size();
         return sum;
     }
 
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            segmentStats.add(segments[i].segmentStats(i));
+        }
+        return statsCounter.snapshot(segmentStats);
+    }
+
+    // Not atomic across segments
+    @Override
+    public long weightedSize() {
+        long sum = 0;
+        for (CoarseLockLRUCache<K, V> seg : segments) sum += seg.weightedSize();
+        return sum;
+    }
+
     // Small concurrency test
     public static void main(String[] args) throws InterruptedException {
         final SegmentedLRUCache<Integer, Integer> cache = new SegmentedLRUCache<>(1000, 16);
@@ -87,33 +121,49 @@ public class SegmentedLRUCacheVersion2<K, V> {
 }
 
 
- class CoarseLockLRUCache<K, V> {
-    private final int capacity;
+ class CoarseLockLRUCache<K, V> implements Instrumented {
+    private final long maxWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final StatsCounter stats;
     private final Map<K, Node> map;
     private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder contention = new LongAdder();
 
     private Node head; // most recent
     private Node tail; // least recent
     private int size = 0;
+    private long weightedSize = 0;
 
     private class Node {
         K key;
         V value;
+        int weight;
         Node prev, next;
         Node(K k, V v) { key = k; value = v; }
     }
 
     public CoarseLockLRUCache(int capacity) {
-        if (capacity <= 0) throw new IllegalArgumentException("capacity > 0");
-        this.capacity = capacity;
-        this.map = new HashMap<>(capacity * 2);
+        this(capacity, Weigher.singleton(), new StatsCounter());
+    }
+
+    /** stats may be shared by the segments of one SegmentedLRUCacheVersion2. */
+    public CoarseLockLRUCache(long maxWeight, Weigher<? super K, ? super V> weigher, StatsCounter stats) {
+        if (maxWeight <= 0) throw new IllegalArgumentException("capacity > 0");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.stats = stats;
+        this.map = new HashMap<>();
     }
 
     public V get(K key) {
-        lock.lock();
+        StatsCounter.lock(lock, contention);
         try {
             Node n = map.get(key);
-            if (n == null) return null;
+            if (n == null) {
+                stats.recordMiss();
+                return null;
+            }
+            stats.recordHit();
             moveToHead(n);
             return n.value;
         } finally {
@@ -122,24 +172,42 @@ public class SegmentedLRUCacheVersion2<K, V> {
     }
 
     public void put(K key, V value) {
-        lock.lock();
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) throw new IllegalArgumentException("negative weight for key " + key);
+        StatsCounter.lock(lock, contention);
         try {
             Node n = map.get(key);
+            if (weight > maxWeight) {
+                // can never fit; drop the old value rather than flush the whole segment
+                if (n != null) {
+                    unlink(n);
+                    map.remove(key);
+                    size--;
+                    weightedSize -= n.weight;
+                }
+                return;
+            }
             if (n != null) {
                 n.value = value;
+                weightedSize += weight - n.weight;
+                n.weight = weight;
                 moveToHead(n);
-                return;
+            } else {
+                Node newNode = new Node(key, value);
+                newNode.weight = weight;
+                addToHead(newNode);
+                map.put(key, newNode);
+                size++;
+                weightedSize += weight;
             }
-            Node newNode = new Node(key, value);
-            addToHead(newNode);
-            map.put(key, newNode);
-            size++;
-            if (size > capacity) {
+            // one large value may push out several small ones
+            while (weightedSize > maxWeight) {
                 Node removed = removeTail();
-                if (removed != null) {
-                    map.remove(removed.key);
-                    size--;
-                }
+                if (removed == null) break;
+                map.remove(removed.key);
+                size--;
+                weightedSize -= removed.weight;
+                stats.recordEviction(EvictionCause.SIZE);
             }
         } finally {
             lock.unlock();
@@ -147,7 +215,7 @@ public class SegmentedLRUCacheVersion2<K, V> {
     }
 
     public int size() {
-        lock.lock();
+        StatsCounter.lock(lock, contention);
         try {
             return size;
         } finally {
@@ -155,6 +223,29 @@ public class SegmentedLRUCacheVersion2<K, V> {
         }
     }
 
+    @Override
+    public CacheStats stats() {
+        return stats.snapshot(List.of(segmentStats(0)));
+    }
+
+    SegmentStats segmentStats(int index) {
+        lock.lock();
+        try {
+            return new SegmentStats(index, weightedSize, maxWeight, contention.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long weightedSize() {
+        StatsCounter.lock(lock, contention);
+        try {
+            return weightedSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private void addToHead(Node n) {
         n.prev = null;
         n.next = head;
@@ -165,10 +256,7 @@ public class SegmentedLRUCacheVersion2<K, V> {
 
     private void moveToHead(Node n) {
         if (n == head) return;
-        // unlink
-        if (n.prev != null) n.prev.next = n.next;
-        if (n.next != null) n.next.prev = n.prev;
-        if (n == tail) tail = n.prev;
+        unlink(n);
         // put at head
         n.prev = null;
         n.next = head;
@@ -176,6 +264,13 @@ public class SegmentedLRUCacheVersion2<K, V> {
         head = n;
     }
 
+    private void unlink(Node n) {
+        if (n.prev != null) n.prev.next = n.next;
+        else head = n.next;
+        if (n.next != null) n.next.prev = n.prev;
+        else tail = n.prev;
+    }
+
     private Node removeTail() {
         if (tail == null) return null;
         Node old = tail;
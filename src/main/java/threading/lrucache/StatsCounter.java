@@ -0,0 +1,136 @@
+package threading.lrucache;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Thread-safe counters behind CacheStats; one per cache.
+ *
+ * Hit/miss/eviction counters are LongAdders, so recording from many threads costs about
+ * one uncontended CAS. Load times go into a log-scale histogram: 4 sub-buckets per power of
+ * two nanoseconds, so percentiles are exact to within one bucket.
+ */
+public final class StatsCounter {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder[] evictions = new LongAdder[EvictionCause.values().length];
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final AtomicLongArray loadHistogram = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator maxLoadNanos = new LongAccumulator(Math::max, 0);
+
+    public StatsCounter() {
+        for (int i = 0; i < evictions.length; i++) evictions[i] = new LongAdder();
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordHits(long count) {
+        hits.add(count);
+    }
+
+    public void recordMisses(long count) {
+        misses.add(count);
+    }
+
+    public void recordEviction(EvictionCause cause) {
+        evictions[cause.ordinal()].increment();
+    }
+
+    public void recordLoadSuccess(long loadNanos) {
+        loadSuccesses.increment();
+        recordLoadTime(loadNanos);
+    }
+
+    public void recordLoadFailure(long loadNanos) {
+        loadFailures.increment();
+        recordLoadTime(loadNanos);
+    }
+
+    private void recordLoadTime(long nanos) {
+        nanos = Math.max(1, nanos);
+        totalLoadNanos.add(nanos);
+        maxLoadNanos.accumulate(nanos);
+        loadHistogram.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Acquire lock, counting the acquisition in contention if it had to wait. Caches call
+     * this instead of lock.lock() on their segment locks.
+     */
+    public static void lock(Lock lock, LongAdder contention) {
+        if (!lock.tryLock()) {
+            contention.increment();
+            lock.lock();
+        }
+    }
+
+    /** Snapshot of all counters; segments describe the cache's current occupancy. */
+    public CacheStats snapshot(List<SegmentStats> segments) {
+        Map<EvictionCause, Long> evictionCounts = new EnumMap<>(EvictionCause.class);
+        for (EvictionCause cause : EvictionCause.values()) {
+            evictionCounts.put(cause, evictions[cause.ordinal()].sum());
+        }
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = loadHistogram.get(i);
+        }
+        return new CacheStats(
+                hits.sum(), misses.sum(), evictionCounts,
+                loadSuccesses.sum(), loadFailures.sum(), totalLoadNanos.sum(),
+                percentile(counts, 0.50), percentile(counts, 0.90),
+                percentile(counts, 0.99), maxLoadNanos.get(),
+                counts, segments);
+    }
+
+    /** Single-segment snapshot for caches with one lock. */
+    public CacheStats snapshot(long size, long capacity, long lockContention) {
+        return snapshot(List.of(new SegmentStats(0, size, capacity, lockContention)));
+    }
+
+    // --- histogram: bucket = (log2 << SUB_BUCKET_BITS) | next SUB_BUCKET_BITS bits ---
+    private static int bucketOf(long nanos) {
+        int log2 = 63 - Long.numberOfLeadingZeros(nanos);
+        if (log2 < SUB_BUCKET_BITS) return (int) nanos;
+        int sub = (int) (nanos >>> (log2 - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return (log2 << SUB_BUCKET_BITS) | sub;
+    }
+
+    /** Largest value that falls in bucket. */
+    static long upperBound(int bucket) {
+        int log2 = bucket >>> SUB_BUCKET_BITS;
+        if (log2 < SUB_BUCKET_BITS) return bucket;
+        int sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+        long base = 1L << log2;
+        long step = base >>> SUB_BUCKET_BITS;
+        return base + (sub + 1) * step - 1;
+    }
+
+    static long percentile(long[] counts, double p) {
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+}
@@ -6,9 +6,10 @@ import java.util.Map;
  * Thread-safe LRU cache backed by LinkedHashMap.
  * Simple and correct. Good for moderate concurrency.
  */
-public class SynchronizedLRUCache<K, V> {
+public class SynchronizedLRUCache<K, V> implements Instrumented {
     private final int capacity;
     private final LinkedHashMap<K, V> map;
+    private final StatsCounter stats = new StatsCounter();
 
     public SynchronizedLRUCache(int capacity) {
         if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
@@ -17,13 +18,18 @@ public class SynchronizedLRUCache<K, V> {
         this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
             @Override
             protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                return size() > SynchronizedLRUCache.this.capacity;
+                boolean evict = size() > SynchronizedLRUCache.this.capacity;
+                if (evict) stats.recordEviction(EvictionCause.SIZE);
+                return evict;
             }
         };
     }
 
     public synchronized V get(K key) {
-        return map.get(key); // access-order will move it to recent
+        V value = map.get(key); // access-order will move it to recent
+        if (value != null) stats.recordHit();
+        else stats.recordMiss();
+        return value;
     }
 
     public synchronized void put(K key, V value) {
@@ -38,6 +44,12 @@ public class SynchronizedLRUCache<K, V> {
         return map.size();
     }
 
+    /** Monitor contention is not observable, so it is reported as 0. */
+    @Override
+    public synchronized CacheStats stats() {
+        return stats.snapshot(map.size(), capacity, 0);
+    }
+
     public synchronized void clear() {
         map.clear();
     }
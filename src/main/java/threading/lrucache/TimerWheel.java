@@ -0,0 +1,140 @@
+package threading.lrucache;
+
+/**
+ * Hierarchical timing wheel for cache expiry (after Varghese & Lauck; same layout as Caffeine).
+ *
+ * - 5 levels of buckets with power-of-two spans of ~1.07s, ~1.14min, ~1.22h, ~1.6d and "later".
+ *   An entry lands in the coarsest level whose span still distinguishes its deadline.
+ * - schedule/deschedule are O(1) (intrusive doubly-linked lists with sentinels).
+ * - advance() walks only the buckets whose tick has passed. Each entry in them either
+ *   expires or drops to a finer level, so every entry is touched at most once per level.
+ *
+ * Not thread-safe; the owning segment calls it under its lock.
+ */
+final class TimerWheel {
+    /** An entry the wheel can hold; cache nodes extend it. */
+    static class Timed {
+        long expiresAt;
+        Timed prevInWheel, nextInWheel;
+
+        boolean isScheduled() {
+            return nextInWheel != null;
+        }
+    }
+
+    /** Called for each entry whose scheduled time has passed. */
+    interface Expirer {
+        /**
+         * Return true if the entry was expired. Return false to keep it; the callee must
+         * then have set a later expiresAt, and the entry is rescheduled.
+         */
+        boolean expire(Timed timed, long now);
+    }
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+            1L << 30, // 1.07s
+            1L << 36, // 1.14m
+            1L << 42, // 1.22h
+            1L << 47, // 1.63d
+            1L << 49, // 6.5d (4 x level 3)
+            1L << 49,
+    };
+    private static final int[] SHIFT = {30, 36, 42, 47, 49};
+
+    private final Timed[][] wheel;
+    private long nanos;
+
+    TimerWheel(long now) {
+        this.nanos = now;
+        this.wheel = new Timed[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = new Timed[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                Timed sentinel = new Timed();
+                sentinel.prevInWheel = sentinel.nextInWheel = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    void schedule(Timed t) {
+        Timed sentinel = findBucket(t.expiresAt);
+        t.nextInWheel = sentinel;
+        t.prevInWheel = sentinel.prevInWheel;
+        sentinel.prevInWheel.nextInWheel = t;
+        sentinel.prevInWheel = t;
+    }
+
+    void reschedule(Timed t) {
+        deschedule(t);
+        schedule(t);
+    }
+
+    void deschedule(Timed t) {
+        if (!t.isScheduled()) return;
+        t.prevInWheel.nextInWheel = t.nextInWheel;
+        t.nextInWheel.prevInWheel = t.prevInWheel;
+        t.prevInWheel = t.nextInWheel = null;
+    }
+
+    /** Move the wheel's clock to now, handing every due entry to expirer. */
+    void advance(long now, Expirer expirer) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0) break;
+            expireBuckets(i, previousTicks, currentTicks - previousTicks, expirer);
+        }
+    }
+
+    /** Drop every entry without expiring it. */
+    void clear() {
+        for (Timed[] level : wheel) {
+            for (Timed sentinel : level) {
+                Timed t = sentinel.nextInWheel;
+                while (t != sentinel) {
+                    Timed next = t.nextInWheel;
+                    t.prevInWheel = t.nextInWheel = null;
+                    t = next;
+                }
+                sentinel.prevInWheel = sentinel.nextInWheel = sentinel;
+            }
+        }
+    }
+
+    private void expireBuckets(int level, long previousTicks, long delta, Expirer expirer) {
+        Timed[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        // the bucket the clock was in may still hold entries due before now
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            Timed sentinel = buckets[i & mask];
+            Timed t = sentinel.nextInWheel;
+            sentinel.prevInWheel = sentinel.nextInWheel = sentinel;
+            while (t != sentinel) {
+                Timed next = t.nextInWheel;
+                t.prevInWheel = t.nextInWheel = null;
+                if (t.expiresAt - nanos > 0 || !expirer.expire(t, nanos)) {
+                    schedule(t); // cascade to a finer level, or the entry was extended
+                }
+                t = next;
+            }
+        }
+    }
+
+    private Timed findBucket(long time) {
+        long duration = time - nanos;
+        int last = BUCKETS.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                return wheel[i][(int) (ticks & (BUCKETS[i] - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+}
@@ -0,0 +1,330 @@
+package threading.lrucache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Segmented cache with a W-TinyLFU eviction/admission policy.
+ *
+ * Each segment (own lock, like SegmentedLRUCache) is split into:
+ * - window:    small LRU (~1% of capacity) that absorbs new keys and short bursts
+ * - probation: main-region LRU for keys seen once in main
+ * - protected: main-region LRU (~80% of main) for keys hit again while on probation
+ *
+ * When the window overflows its LRU key becomes a candidate for the main region. If main is
+ * full, the candidate competes with the probation LRU victim and the one with the higher
+ * FrequencySketch estimate stays. A one-off scan of cold keys therefore churns only the
+ * window instead of flushing the hot working set.
+ *
+ * Every access counts once in the sketch. The read-through pattern (a get that misses, then
+ * a put) is one access, so a put right after its key's miss is not counted again; otherwise
+ * new keys would start with double the weight of a resident hit.
+ */
+public class TinyLfuCache<K, V> implements Instrumented {
+    private final int segmentMask;
+    private final Segment<K, V>[] segments;
+    private final StatsCounter statsCounter = new StatsCounter();
+
+    public TinyLfuCache(int capacity, int segmentsCount) {
+        if (capacity <= 0 || segmentsCount <= 0)
+            throw new IllegalArgumentException("capacity and segmentCount must be > 0");
+        // make segments power of two for fast masking
+        int s = 1;
+        while (s < segmentsCount) s <<= 1;
+        this.segmentMask = s - 1;
+        @SuppressWarnings("unchecked")
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment<?, ?>[s];
+        this.segments = segments;
+        int perSegment = Math.max(1, (int) Math.ceil((double) capacity / s));
+        for (int i = 0; i < s; i++) {
+            segments[i] = new Segment<>(perSegment, statsCounter);
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    public V get(K key) {
+        Objects.requireNonNull(key);
+        return segmentFor(key).get(key);
+    }
+
+    public void put(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        segmentFor(key).put(key, value);
+    }
+
+    public V remove(K key) {
+        Objects.requireNonNull(key);
+        return segmentFor(key).remove(key);
+    }
+
+    public int size() {
+        int total = 0;
+        for (Segment<K, V> seg : segments) total += seg.size();
+        return total;
+    }
+
+    public void clear() {
+        for (Segment<K, V> seg : segments) seg.clear();
+    }
+
+    /** ADMISSION evictions count window candidates that lost to the main region's victim. */
+    @Override
+    public CacheStats stats() {
+        List<SegmentStats> segmentStats = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            Segment<K, V> seg = segments[i];
+            segmentStats.add(new SegmentStats(i, seg.size(), seg.capacity, seg.contention.sum()));
+        }
+        return statsCounter.snapshot(segmentStats);
+    }
+
+    // -------- Segment (W-TinyLFU) --------
+    private static final class Segment<K, V> {
+        private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder contention = new LongAdder();
+        private final StatsCounter stats;
+        private final int capacity;
+        private final Map<K, Node<K, V>> map;
+        private final FrequencySketch sketch;
+        private final Deque<K, V> window = new Deque<>();
+        private final Deque<K, V> probation = new Deque<>();
+        private final Deque<K, V> protectedQ = new Deque<>();
+        private final int maxWindow;
+        private final int maxMain;
+        private final int maxProtected;
+        private K lastMiss; // the sketch already counted this key's access
+
+        Segment(int capacity, StatsCounter stats) {
+            this.capacity = capacity;
+            this.stats = stats;
+            this.map = new HashMap<>(capacity * 2);
+            this.sketch = new FrequencySketch(capacity);
+            this.maxWindow = Math.max(1, capacity / 100);
+            this.maxMain = Math.max(1, capacity - maxWindow);
+            this.maxProtected = Math.max(1, (int) (maxMain * 0.8));
+        }
+
+        V get(K key) {
+            StatsCounter.lock(lock, contention);
+            try {
+                sketch.increment(key);
+                Node<K, V> n = map.get(key);
+                if (n == null) {
+                    stats.recordMiss();
+                    lastMiss = key;
+                    return null;
+                }
+                stats.recordHit();
+                onHit(n);
+                return n.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(K key, V value) {
+            StatsCounter.lock(lock, contention);
+            try {
+                if (key.equals(lastMiss)) lastMiss = null; // the load completing that miss
+                else sketch.increment(key);
+                Node<K, V> n = map.get(key);
+                if (n != null) {
+                    n.value = value;
+                    onHit(n);
+                    return;
+                }
+                n = new Node<>(key, value);
+                map.put(key, n);
+                n.queue = WINDOW;
+                window.addFirst(n);
+                if (window.size > maxWindow) {
+                    admitFromWindow();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        V remove(K key) {
+            StatsCounter.lock(lock, contention);
+            try {
+                Node<K, V> n = map.remove(key);
+                if (n == null) return null;
+                queueOf(n).unlink(n);
+                return n.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            StatsCounter.lock(lock, contention);
+            try {
+                map.clear();
+                lastMiss = null;
+                window.clear();
+                probation.clear();
+                protectedQ.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Deque<K, V> queueOf(Node<K, V> n) {
+            return n.queue == WINDOW ? window : n.queue == PROBATION ? probation : protectedQ;
+        }
+
+        private void onHit(Node<K, V> n) {
+            switch (n.queue) {
+                case WINDOW -> window.moveToFront(n);
+                case PROBATION -> {
+                    // second hit in main: promote, demoting the protected LRU if needed
+                    probation.unlink(n);
+                    n.queue = PROTECTED;
+                    protectedQ.addFirst(n);
+                    if (protectedQ.size > maxProtected) {
+                        Node<K, V> demoted = protectedQ.removeLast();
+                        demoted.queue = PROBATION;
+                        probation.addFirst(demoted);
+                    }
+                }
+                default -> protectedQ.moveToFront(n);
+            }
+        }
+
+        /** Move the window's LRU key into main, or evict it if it loses to main's victim. */
+        private void admitFromWindow() {
+            Node<K, V> candidate = window.removeLast();
+            if (probation.size + protectedQ.size < maxMain) {
+                candidate.queue = PROBATION;
+                probation.addFirst(candidate);
+                return;
+            }
+            Node<K, V> victim = probation.peekLast();
+            if (victim == null) victim = protectedQ.peekLast();
+            if (admit(candidate.key, victim.key)) {
+                queueOf(victim).unlink(victim);
+                map.remove(victim.key);
+                stats.recordEviction(EvictionCause.SIZE);
+                candidate.queue = PROBATION;
+                probation.addFirst(candidate);
+            } else {
+                map.remove(candidate.key);
+                stats.recordEviction(EvictionCause.ADMISSION);
+            }
+        }
+
+        private boolean admit(K candidate, K victim) {
+            int candidateFreq = sketch.frequency(candidate);
+            int victimFreq = sketch.frequency(victim);
+            if (candidateFreq > victimFreq) return true;
+            // a little randomness for warm candidates stops an attacker from pinning a victim
+            return candidateFreq > 5 && (ThreadLocalRandom.current().nextInt() & 127) == 0;
+        }
+    }
+
+    // -------- LRU list with sentinel (head = most recent) --------
+    private static final class Deque<K, V> {
+        final Node<K, V> head = new Node<>(null, null);
+        final Node<K, V> tail = new Node<>(null, null);
+        int size;
+
+        Deque() {
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        void addFirst(Node<K, V> n) {
+            n.next = head.next;
+            n.prev = head;
+            head.next.prev = n;
+            head.next = n;
+            size++;
+        }
+
+        void unlink(Node<K, V> n) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+            n.prev = n.next = null;
+            size--;
+        }
+
+        void moveToFront(Node<K, V> n) {
+            unlink(n);
+            addFirst(n);
+        }
+
+        Node<K, V> peekLast() {
+            return tail.prev == head ? null : tail.prev;
+        }
+
+        Node<K, V> removeLast() {
+            Node<K, V> n = peekLast();
+            if (n != null) unlink(n);
+            return n;
+        }
+
+        void clear() {
+            head.next = tail;
+            tail.prev = head;
+            size = 0;
+        }
+    }
+
+    // -------- Node --------
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int queue;
+        Node<K, V> prev, next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    // hot set + never-repeating scan: compare with SegmentedLRUCache
+    public static void main(String[] args) {
+        final int CAP = 1000;
+        TinyLfuCache<Integer, Integer> tinyLfu = new TinyLfuCache<>(CAP, 4);
+        SegmentedLRUCache<Integer, Integer> lru = new SegmentedLRUCache<>(CAP, 4);
+        AtomicInteger lfuHits = new AtomicInteger(), lruHits = new AtomicInteger();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int scanKey = 1_000_000;
+        for (int i = 0; i < 500_000; i++) {
+            // 1 in 3 requests is part of a never-repeating scan
+            int key = (i % 3 == 0) ? scanKey++ : rnd.nextInt(0, 800);
+            if (tinyLfu.get(key) != null) lfuHits.incrementAndGet();
+            else tinyLfu.put(key, key);
+            if (lru.get(key) != null) lruHits.incrementAndGet();
+            else lru.put(key, key);
+        }
+        System.out.println("TinyLFU hits=" + lfuHits.get() + " LRU hits=" + lruHits.get());
+    }
+}
@@ -0,0 +1,25 @@
+package threading.lrucache;
+
+/**
+ * Computes the weight of a cache entry (e.g. its size in bytes) for caches bounded by total
+ * weight instead of entry count. Called on every put; must be cheap and return >= 0.
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    int weigh(K key, V value);
+
+    /** Every entry weighs 1, so the maximum weight is an entry count. */
+    @SuppressWarnings("unchecked")
+    static <K, V> Weigher<K, V> singleton() {
+        return (Weigher<K, V>) SingletonWeigher.INSTANCE;
+    }
+}
+
+enum SingletonWeigher implements Weigher<Object, Object> {
+    INSTANCE;
+
+    @Override
+    public int weigh(Object key, Object value) {
+        return 1;
+    }
+}
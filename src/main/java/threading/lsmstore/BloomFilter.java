@@ -0,0 +1,67 @@
+package threading.lsmstore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size Bloom filter over int keys, using double hashing (h1 + i * h2).
+ * ~10 bits per key with 7 probes gives about 1% false positives.
+ */
+class BloomFilter {
+    static final int BITS_PER_KEY = 10;
+    static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int numBits;
+
+    BloomFilter(int expectedKeys) {
+        this(new long[(Math.max(64, expectedKeys * BITS_PER_KEY) + 63) / 64]);
+    }
+
+    private BloomFilter(long[] bits) {
+        this.bits = bits;
+        this.numBits = bits.length * 64;
+    }
+
+    private static int h1(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int h2(int key) {
+        int h = key * 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h | 1; // odd, so probes never collapse onto one bit
+    }
+
+    void add(int key) {
+        int a = h1(key), b = h2(key);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((a + i * b) & 0x7fffffff) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(int key) {
+        int a = h1(key), b = h2(key);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((a + i * b) & 0x7fffffff) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    int serializedBytes() {
+        return 4 + bits.length * 8;
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.putInt(bits.length);
+        for (long word : bits) out.putLong(word);
+    }
+
+    static BloomFilter readFrom(ByteBuffer in) {
+        long[] bits = new long[in.getInt()];
+        for (int i = 0; i < bits.length; i++) bits[i] = in.getLong();
+        return new BloomFilter(bits);
+    }
+}
@@ -0,0 +1,512 @@
+package threading.lsmstore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Log-structured merge store with the put/get/remove API of the keyvaluestore package.
+ *
+ * - Writes go to the active Memtable. When it reaches flushThreshold entries it becomes
+ *   immutable and a background task writes it out as an SSTable. The task drains every
+ *   immutable memtable and retries a failed flush with backoff. Once MAX_PENDING_FLUSHES
+ *   memtables are waiting, writers block until a flush catches up, which bounds both heap
+ *   use and the number of memtables a lookup scans.
+ * - Reads check the active memtable, the immutable ones (newest first), then the SSTables
+ *   newest first; each table's bloom filter skips the disk for most absent keys.
+ * - Size-tiered compaction: a flushed table is tier 0. When `fanout` adjacent tables share
+ *   a tier they are merged into one table of the next tier, so each entry is rewritten
+ *   about once per tier. The tier is recorded rather than derived from the entry count, so
+ *   a merge that shrinks because overwrites collapsed still moves up a tier. Otherwise it
+ *   would be merged again with every new group of flushes. Tombstones are dropped only
+ *   when the merge includes the oldest table.
+ * - MANIFEST lists the live tables newest first, one "name tier" line each, and is
+ *   replaced atomically on every flush/compaction; files it does not list are leftovers
+ *   of a crash and get deleted.
+ *
+ * Memtables are not logged: pair the store with threading.keyvaluestore.WriteAheadLog if
+ * unflushed writes must survive a crash. close() flushes everything.
+ */
+public class LsmKVStore implements AutoCloseable {
+    // encoded entry: PRESENT | value, TOMBSTONE, or MISSING (no entry at this level)
+    static final long MISSING = 0L;
+    static final long PRESENT = 1L << 32;
+    static final long TOMBSTONE = 1L << 33;
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String TABLE_PREFIX = "sst-";
+    private static final String TABLE_SUFFIX = ".sst";
+    private static final int MAX_PENDING_FLUSHES = 4;
+    private static final long MIN_FLUSH_BACKOFF_MS = 10;
+    private static final long MAX_FLUSH_BACKOFF_MS = 1000;
+
+    private final Path dir;
+    private final int flushThreshold;
+    private final int fanout;
+    private final ExecutorService background;
+    private final boolean ownsExecutor;
+
+    // guards active/immutables/tables: readers and writers share it, swaps take it exclusively
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    // serializes table-list changes (and MANIFEST writes) between flushes and compactions
+    private final ReentrantLock installLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    // writers wait on it while too many memtables are waiting to be flushed
+    private final ReentrantLock backlogLock = new ReentrantLock();
+    private final Condition flushed = backlogLock.newCondition();
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private volatile boolean closed;
+
+    private Memtable active;
+    private final Deque<Memtable> immutables = new ArrayDeque<>(); // newest first
+    private volatile int pendingFlushes; // immutables.size(), readable without stateLock
+    private List<SSTable> tables = new ArrayList<>();              // newest first, replaced on change
+    private final Map<SSTable, Integer> tiers = new ConcurrentHashMap<>(); // set before a table is installed
+
+    static long encode(int value) {
+        return PRESENT | (value & 0xffffffffL);
+    }
+
+    public LsmKVStore(Path dir) throws IOException {
+        this(dir, 1 << 16, 4, null);
+    }
+
+    /**
+     * @param background executor for flushes and compactions; null to use a private single thread
+     */
+    public LsmKVStore(Path dir, int flushThreshold, int fanout, ExecutorService background) throws IOException {
+        if (flushThreshold <= 0 || fanout < 2) throw new IllegalArgumentException("flushThreshold > 0, fanout >= 2");
+        this.dir = dir;
+        this.flushThreshold = flushThreshold;
+        this.fanout = fanout;
+        this.ownsExecutor = background == null;
+        this.background = background != null ? background : Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lsm-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        this.active = new Memtable(flushThreshold);
+        Files.createDirectories(dir);
+        loadTables();
+    }
+
+    // ------------------- READ / WRITE -------------------
+
+    /** Put or update value for key. */
+    public void put(int key, int value) {
+        write(key, encode(value));
+    }
+
+    /** Get value for key, or null if not present. */
+    public Integer get(int key) {
+        long e = lookup(key);
+        return (e & PRESENT) != 0 ? (int) e : null;
+    }
+
+    /**
+     * Remove key, return true if it was present. The check and the tombstone write are
+     * separate steps, so under concurrent writers the return value is best effort.
+     */
+    public boolean remove(int key) {
+        boolean present = (lookup(key) & PRESENT) != 0;
+        write(key, TOMBSTONE);
+        return present;
+    }
+
+    private void write(int key, long entry) {
+        if (closed) throw new IllegalStateException("store is closed");
+        if (pendingFlushes >= MAX_PENDING_FLUSHES) awaitFlushes();
+        boolean full;
+        stateLock.readLock().lock();
+        try {
+            active.put(key, entry);
+            full = active.size() >= flushThreshold;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (full) rotate(false);
+    }
+
+    private long lookup(int key) {
+        stateLock.readLock().lock();
+        try {
+            long e = active.get(key);
+            if (e != MISSING) return e;
+            for (Memtable m : immutables) {
+                e = m.get(key);
+                if (e != MISSING) return e;
+            }
+            for (SSTable t : tables) {
+                e = t.get(key);
+                if (e != MISSING) return e;
+            }
+            return MISSING;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    // ------------------- FLUSH -------------------
+
+    /** Block while the flush backlog is full; close() releases the waiters. */
+    private void awaitFlushes() {
+        backlogLock.lock();
+        try {
+            while (pendingFlushes >= MAX_PENDING_FLUSHES && !closed) flushed.awaitUninterruptibly();
+        } finally {
+            backlogLock.unlock();
+        }
+        if (closed) throw new IllegalStateException("store is closed");
+    }
+
+    private void signalFlushed() {
+        backlogLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            backlogLock.unlock();
+        }
+    }
+
+    /** Retire the active memtable and schedule its flush (or only if it is full). */
+    private void rotate(boolean force) {
+        stateLock.writeLock().lock();
+        try {
+            if (active.size() == 0 || (!force && active.size() < flushThreshold)) return; // someone beat us
+            immutables.addFirst(active);
+            pendingFlushes = immutables.size();
+            active = new Memtable(flushThreshold);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        if (!force) scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) background.execute(this::flushTask);
+    }
+
+    /** Drain the immutable memtables, retrying failures with backoff until the store closes. */
+    private void flushTask() {
+        long backoffMs = MIN_FLUSH_BACKOFF_MS;
+        try {
+            while (!closed) { // close() flushes whatever is left
+                try {
+                    if (!flushOldest()) break;
+                    backoffMs = MIN_FLUSH_BACKOFF_MS;
+                } catch (IOException e) {
+                    System.err.println("lsm flush failed, retrying in " + backoffMs + "ms: " + e);
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, MAX_FLUSH_BACKOFF_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // executor shutting down; close() flushes the rest
+        }
+        flushScheduled.set(false);
+        // a rotate between our last check and clearing the flag found it still set
+        if (!closed && pendingFlushes > 0) scheduleFlush();
+        if (shouldCompact() && compactionScheduled.compareAndSet(false, true)) {
+            background.execute(this::compactionTask);
+        }
+    }
+
+    /** Write the oldest immutable memtable to a table. Returns false if there was none. */
+    private boolean flushOldest() throws IOException {
+        flushLock.lock();
+        try {
+            Memtable m;
+            stateLock.readLock().lock();
+            try {
+                m = immutables.peekLast();
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            if (m == null) return false;
+
+            SSTable table = writeTable(m.size(), m::writeSorted);
+            tiers.put(table, 0);
+            installLock.lock();
+            try {
+                List<SSTable> next = new ArrayList<>(tables.size() + 1);
+                next.add(table);
+                next.addAll(tables);
+                writeManifest(next);
+                stateLock.writeLock().lock();
+                try {
+                    tables = next;
+                    immutables.removeLast();
+                    pendingFlushes = immutables.size();
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+            } finally {
+                installLock.unlock();
+            }
+            signalFlushed();
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private interface TableSource {
+        void writeTo(SSTable.Writer writer) throws IOException;
+    }
+
+    private SSTable writeTable(long expectedEntries, TableSource source) throws IOException {
+        Path file = dir.resolve(TABLE_PREFIX + String.format("%012d", nextSeq.getAndIncrement()) + TABLE_SUFFIX);
+        SSTable.Writer writer = new SSTable.Writer(file, expectedEntries);
+        try {
+            source.writeTo(writer);
+        } catch (IOException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        return writer.finish();
+    }
+
+    // ------------------- COMPACTION -------------------
+
+    private int tier(SSTable t) {
+        return tiers.get(t);
+    }
+
+    /** Start index (in the newest-first list) of `fanout` adjacent same-tier tables, or -1. */
+    private int findCompactionRun(List<SSTable> list) {
+        for (int i = 0; i + fanout <= list.size(); i++) {
+            int tier = tier(list.get(i));
+            int j = i + 1;
+            while (j < i + fanout && tier(list.get(j)) == tier) j++;
+            if (j == i + fanout) return i;
+        }
+        return -1;
+    }
+
+    private boolean shouldCompact() {
+        stateLock.readLock().lock();
+        try {
+            return findCompactionRun(tables) >= 0;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    private void compactionTask() {
+        try {
+            while (!closed && compactOnce()) {
+                // keep going while some tier is full
+            }
+        } catch (IOException e) {
+            System.err.println("lsm compaction failed: " + e);
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    /** Merge one run of same-tier tables. Returns false if nothing needed merging. */
+    private boolean compactOnce() throws IOException {
+        compactionLock.lock();
+        try {
+            List<SSTable> snapshot;
+            stateLock.readLock().lock();
+            try {
+                snapshot = tables;
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            int start = findCompactionRun(snapshot);
+            if (start < 0) return false;
+            List<SSTable> inputs = new ArrayList<>(snapshot.subList(start, start + fanout));
+            boolean includesOldest = start + fanout == snapshot.size();
+            long expected = 0;
+            for (SSTable t : inputs) expected += t.entryCount;
+
+            SSTable merged = writeTable(expected, w -> merge(inputs, !includesOldest, w));
+            tiers.put(merged, tier(inputs.get(0)) + 1);
+
+            installLock.lock();
+            try {
+                // flushes only prepend, so the inputs are still adjacent; find them again
+                List<SSTable> current = tables;
+                int at = current.indexOf(inputs.get(0));
+                List<SSTable> next = new ArrayList<>(current.subList(0, at));
+                next.add(merged);
+                next.addAll(current.subList(at + fanout, current.size()));
+                writeManifest(next);
+                stateLock.writeLock().lock();
+                try {
+                    tables = next;
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+            } finally {
+                installLock.unlock();
+            }
+            // readers hold the read lock for a whole lookup, so nobody is using the inputs now
+            for (SSTable t : inputs) {
+                tiers.remove(t);
+                t.close();
+                Files.deleteIfExists(t.file);
+            }
+            return true;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /** K-way merge; for equal keys the newest table (lowest input index) wins. */
+    private static void merge(List<SSTable> inputs, boolean keepTombstones, SSTable.Writer out) throws IOException {
+        record Head(SSTable.Cursor cursor, int age) {}
+        PriorityQueue<Head> pq = new PriorityQueue<>((a, b) -> a.cursor.key != b.cursor.key
+                ? Integer.compare(a.cursor.key, b.cursor.key) : Integer.compare(a.age, b.age));
+        for (int i = 0; i < inputs.size(); i++) {
+            SSTable.Cursor c = inputs.get(i).cursor();
+            if (c.next()) pq.add(new Head(c, i));
+        }
+        while (!pq.isEmpty()) {
+            Head top = pq.poll();
+            int key = top.cursor.key;
+            long entry = top.cursor.entry;
+            if (keepTombstones || entry != TOMBSTONE) out.add(key, entry);
+            if (top.cursor.next()) pq.add(top);
+            // skip older versions of the same key
+            while (!pq.isEmpty() && pq.peek().cursor.key == key) {
+                Head stale = pq.poll();
+                if (stale.cursor.next()) pq.add(stale);
+            }
+        }
+    }
+
+    // ------------------- MANIFEST / STARTUP -------------------
+
+    private void writeManifest(List<SSTable> list) throws IOException {
+        List<String> lines = new ArrayList<>(list.size());
+        for (SSTable t : list) lines.add(t.file.getFileName() + " " + tier(t));
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        Files.write(tmp, lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadTables() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        Set<String> live = new HashSet<>();
+        List<SSTable> loaded = new ArrayList<>();
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest)) {
+                if (line.isBlank()) continue;
+                String[] fields = line.trim().split(" ");
+                int tier;
+                try {
+                    tier = fields.length == 2 ? Integer.parseInt(fields[1]) : -1;
+                } catch (NumberFormatException e) {
+                    tier = -1;
+                }
+                if (tier < 0) throw new IOException("corrupt MANIFEST line in " + dir + ": " + line);
+                String name = fields[0];
+                live.add(name);
+                SSTable table = SSTable.open(dir.resolve(name));
+                loaded.add(table);
+                tiers.put(table, tier);
+            }
+        }
+        long maxSeq = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, TABLE_PREFIX + "*" + TABLE_SUFFIX)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                maxSeq = Math.max(maxSeq, Long.parseLong(
+                        name.substring(TABLE_PREFIX.length(), name.length() - TABLE_SUFFIX.length())));
+                if (!live.contains(name)) Files.delete(f); // half-written or already compacted away
+            }
+        }
+        nextSeq.set(maxSeq + 1);
+        tables = loaded;
+    }
+
+    public int tableCount() {
+        stateLock.readLock().lock();
+        try {
+            return tables.size();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /** Flush every memtable, stop background work and close all tables. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        signalFlushed(); // writers blocked on the backlog throw instead of waiting
+        if (ownsExecutor) {
+            background.shutdown();
+            try {
+                background.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        compactionLock.lock(); // wait out a compaction running on a shared executor
+        try {
+            rotate(true);
+            while (flushOldest()) {
+                // drain immutables oldest first
+            }
+            for (SSTable t : tables) t.close();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    // ------------------- DEMO -------------------
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("lsm-kv");
+        try (LsmKVStore kv = new LsmKVStore(dir, 10_000, 4, null)) {
+            Runnable writer = () -> {
+                for (int i = 0; i < 200_000; i++) {
+                    kv.put(i, i * 10);
+                }
+            };
+            Thread t1 = new Thread(writer);
+            Thread t2 = new Thread(writer);
+            t1.start(); t2.start();
+            t1.join(); t2.join();
+            for (int i = 0; i < 200_000; i += 2) kv.remove(i);
+            System.out.println("tables=" + kv.tableCount() + " value for 43 = " + kv.get(43)
+                    + " value for 42 = " + kv.get(42));
+        }
+        try (LsmKVStore reopened = new LsmKVStore(dir)) {
+            int present = 0;
+            for (int i = 0; i < 200_000; i++) if (reopened.get(i) != null) present++;
+            System.out.println("reopened: tables=" + reopened.tableCount() + " present=" + present
+                    + " value for 199999 = " + reopened.get(199_999));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package threading.lsmstore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory write buffer of the LSM store: a lock-free chained hash table in the style
+ * of ResizableLockFreeKVStore, CAS-ing new nodes onto bucket heads. It never resizes
+ * because it is flushed once it reaches the flush threshold it was sized for.
+ *
+ * Each node holds an encoded entry (see LsmKVStore.encode), so a delete is just a
+ * tombstone entry that shadows older SSTables until compaction drops it.
+ */
+class Memtable {
+    private static final class Node {
+        final int key;
+        volatile long entry;
+        final Node next;
+
+        Node(int key, long entry, Node next) {
+            this.key = key;
+            this.entry = entry;
+            this.next = next;
+        }
+    }
+
+    private final AtomicReferenceArray<Node> buckets;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    Memtable(int expectedEntries) {
+        int c = 16;
+        while (c < expectedEntries * 2) c <<= 1;
+        this.buckets = new AtomicReferenceArray<>(c);
+        this.mask = c - 1;
+    }
+
+    private int index(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** Store an encoded entry (value or tombstone) for key. */
+    void put(int key, long entry) {
+        int idx = index(key);
+        while (true) {
+            Node head = buckets.get(idx);
+            for (Node n = head; n != null; n = n.next) {
+                if (n.key == key) {
+                    n.entry = entry; // last writer wins
+                    return;
+                }
+            }
+            if (buckets.compareAndSet(idx, head, new Node(key, entry, head))) {
+                size.incrementAndGet();
+                return;
+            }
+            // retry: someone else changed the bucket (maybe inserted the same key)
+        }
+    }
+
+    /** Encoded entry for key, or LsmKVStore.MISSING. */
+    long get(int key) {
+        for (Node n = buckets.get(index(key)); n != null; n = n.next) {
+            if (n.key == key) return n.entry;
+        }
+        return LsmKVStore.MISSING;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /** Write all entries in key order. Only called once the memtable is immutable. */
+    void writeSorted(SSTable.Writer writer) throws IOException {
+        int n = size.get();
+        int[] keys = new int[n];
+        long[] entries = new long[n];
+        long[] order = new long[n];
+        int i = 0;
+        for (int b = 0; b <= mask; b++) {
+            for (Node node = buckets.get(b); node != null; node = node.next) {
+                keys[i] = node.key;
+                entries[i] = node.entry;
+                order[i] = ((long) node.key << 32) | i; // signed key in the high half sorts first
+                i++;
+            }
+        }
+        Arrays.sort(order);
+        for (long o : order) {
+            int pos = (int) o;
+            writer.add(keys[pos], entries[pos]);
+        }
+    }
+}
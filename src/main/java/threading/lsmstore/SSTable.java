@@ -0,0 +1,233 @@
+package threading.lsmstore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Immutable sorted table file.
+ *
+ * Layout:
+ *   data:   entries key(int) | flag(byte) | value(int), sorted by key, BLOCK_ENTRIES per block
+ *   index:  blockCount(int), then firstKey(int) | offset(long) | entries(int) per block
+ *   bloom:  BloomFilter over every key (tombstones included)
+ *   footer: indexOffset(long) | bloomOffset(long) | entryCount(long) | MAGIC(int)
+ *
+ * The block index and bloom filter stay in memory; a lookup reads at most one block.
+ */
+final class SSTable implements AutoCloseable {
+    static final int BLOCK_ENTRIES = 256;
+    private static final int ENTRY_BYTES = 9;
+    private static final int FOOTER_BYTES = 28;
+    private static final int MAGIC = 0x53535442; // "SSTB"
+    private static final byte FLAG_VALUE = 1, FLAG_TOMBSTONE = 2;
+
+    final Path file;
+    final long entryCount;
+    private final FileChannel channel;
+    private final int[] blockFirstKeys;
+    private final long[] blockOffsets;
+    private final int[] blockCounts;
+    private final BloomFilter bloom;
+
+    private SSTable(Path file, FileChannel channel, int[] blockFirstKeys, long[] blockOffsets,
+                    int[] blockCounts, BloomFilter bloom, long entryCount) {
+        this.file = file;
+        this.channel = channel;
+        this.blockFirstKeys = blockFirstKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockCounts = blockCounts;
+        this.bloom = bloom;
+        this.entryCount = entryCount;
+    }
+
+    static SSTable open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = ch.size();
+            if (size < FOOTER_BYTES) throw new IOException("table too short: " + file);
+            ByteBuffer footer = readFully(ch, size - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = footer.getLong();
+            long bloomOffset = footer.getLong();
+            long entryCount = footer.getLong();
+            if (footer.getInt() != MAGIC) throw new IOException("not a table: " + file);
+
+            ByteBuffer index = readFully(ch, indexOffset, (int) (bloomOffset - indexOffset));
+            int blocks = index.getInt();
+            int[] firstKeys = new int[blocks];
+            long[] offsets = new long[blocks];
+            int[] counts = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstKeys[i] = index.getInt();
+                offsets[i] = index.getLong();
+                counts[i] = index.getInt();
+            }
+            BloomFilter bloom = BloomFilter.readFrom(
+                    readFully(ch, bloomOffset, (int) (size - FOOTER_BYTES - bloomOffset)));
+            return new SSTable(file, ch, firstKeys, offsets, counts, bloom, entryCount);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0) throw new IOException("unexpected end of table");
+        }
+        return buf.flip();
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        return readFully(channel, blockOffsets[block], blockCounts[block] * ENTRY_BYTES);
+    }
+
+    /** Encoded entry for key (see LsmKVStore.encode), or LsmKVStore.MISSING. */
+    long get(int key) throws IOException {
+        if (blockFirstKeys.length == 0 || !bloom.mightContain(key)) return LsmKVStore.MISSING;
+        // last block whose first key <= key
+        int lo = 0, hi = blockFirstKeys.length - 1, block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockFirstKeys[mid] <= key) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return LsmKVStore.MISSING;
+        ByteBuffer data = readBlock(block);
+        lo = 0;
+        hi = blockCounts[block] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = data.getInt(mid * ENTRY_BYTES);
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return decode(data, mid * ENTRY_BYTES);
+        }
+        return LsmKVStore.MISSING;
+    }
+
+    private static long decode(ByteBuffer data, int at) {
+        byte flag = data.get(at + 4);
+        return flag == FLAG_TOMBSTONE ? LsmKVStore.TOMBSTONE : LsmKVStore.encode(data.getInt(at + 5));
+    }
+
+    /** Sequential reader over all entries, one block in memory at a time. */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    final class Cursor {
+        private int block = -1;
+        private ByteBuffer data;
+        private int pos;
+        int key;
+        long entry;
+
+        /** Advance to the next entry; false at the end of the table. */
+        boolean next() throws IOException {
+            while (data == null || pos >= blockCounts[block]) {
+                if (block + 1 >= blockCounts.length) return false;
+                block++;
+                data = readBlock(block);
+                pos = 0;
+            }
+            key = data.getInt(pos * ENTRY_BYTES);
+            entry = decode(data, pos * ENTRY_BYTES);
+            pos++;
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Streams sorted entries into a new table file. Keys must be added in ascending order. */
+    static final class Writer {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        private final BloomFilter bloom;
+        private int[] firstKeys = new int[16];
+        private long[] offsets = new long[16];
+        private int[] counts = new int[16];
+        private int blocks;
+        private long written;
+        private long entries;
+
+        Writer(Path file, long expectedEntries) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            this.bloom = new BloomFilter((int) Math.min(Integer.MAX_VALUE / BloomFilter.BITS_PER_KEY, expectedEntries));
+        }
+
+        void add(int key, long entry) throws IOException {
+            if (blocks == 0 || counts[blocks - 1] == BLOCK_ENTRIES) {
+                if (blocks == firstKeys.length) {
+                    firstKeys = Arrays.copyOf(firstKeys, blocks * 2);
+                    offsets = Arrays.copyOf(offsets, blocks * 2);
+                    counts = Arrays.copyOf(counts, blocks * 2);
+                }
+                firstKeys[blocks] = key;
+                offsets[blocks] = written;
+                blocks++;
+            }
+            counts[blocks - 1]++;
+            if (buf.remaining() < ENTRY_BYTES) drain();
+            boolean tombstone = (entry & LsmKVStore.TOMBSTONE) != 0;
+            buf.putInt(key).put(tombstone ? FLAG_TOMBSTONE : FLAG_VALUE).putInt((int) entry);
+            written += ENTRY_BYTES;
+            entries++;
+            bloom.add(key);
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+
+        /** Write index, bloom filter and footer, fsync, and open the result for reading. */
+        SSTable finish() throws IOException {
+            try {
+                drain();
+                long indexOffset = written;
+                ByteBuffer index = ByteBuffer.allocate(4 + blocks * 16);
+                index.putInt(blocks);
+                for (int i = 0; i < blocks; i++) {
+                    index.putInt(firstKeys[i]).putLong(offsets[i]).putInt(counts[i]);
+                }
+                index.flip();
+                while (index.hasRemaining()) channel.write(index);
+
+                long bloomOffset = indexOffset + 4 + blocks * 16L;
+                ByteBuffer tail = ByteBuffer.allocate(bloom.serializedBytes() + FOOTER_BYTES);
+                bloom.writeTo(tail);
+                tail.putLong(indexOffset).putLong(bloomOffset).putLong(entries).putInt(MAGIC);
+                tail.flip();
+                while (tail.hasRemaining()) channel.write(tail);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            return open(file);
+        }
+
+        /** Give up on a partially written table. */
+        void abort() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package threading.keyvaluestore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DurableKVStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private DurableKVStore open(Path dir) throws IOException {
+        return DurableKVStore.open(dir, 1024, 8, WriteAheadLog.FsyncPolicy.EVERY_WRITE, 0, 0);
+    }
+
+    @Test
+    public void givenCheckpointAndLaterWrites_whenReopening_thenSnapshotAndLogAreBothApplied() throws IOException {
+        Path dir = tmp.getRoot().toPath();
+        try (DurableKVStore kv = open(dir)) {
+            for (int i = 0; i < 100; i++) kv.put(i, i);
+            kv.checkpoint();
+            kv.put(5, -5);
+            kv.remove(6);
+            kv.put(200, 200);
+        }
+
+        try (DurableKVStore kv = open(dir)) {
+            assertEquals(100, kv.size());
+            assertEquals(Integer.valueOf(-5), kv.get(5));
+            assertNull(kv.get(6));
+            assertEquals(Integer.valueOf(200), kv.get(200));
+            assertEquals(Integer.valueOf(99), kv.get(99));
+        }
+    }
+
+    @Test
+    public void givenCrashBetweenSnapshotRenameAndLogTruncate_whenReopening_thenReplayOverTheSnapshotIsHarmless()
+            throws IOException {
+        Path dir = tmp.newFolder("kv").toPath();
+        Path log = dir.resolve("wal.log");
+        Path saved = tmp.getRoot().toPath().resolve("wal.saved");
+        try (DurableKVStore kv = open(dir)) {
+            for (int i = 0; i < 50; i++) kv.put(i, i);
+            kv.put(7, 70);
+            kv.remove(8);
+            kv.put(8, 80);
+            kv.remove(9);
+        }
+        Files.copy(log, saved, StandardCopyOption.REPLACE_EXISTING);
+        try (DurableKVStore kv = open(dir)) {
+            kv.checkpoint(); // renames the snapshot into place, then truncates the log
+        }
+        // put back the log the checkpoint already covered, as if we crashed before truncating it
+        Files.move(saved, log, StandardCopyOption.REPLACE_EXISTING);
+
+        try (DurableKVStore kv = open(dir)) {
+            assertEquals(49, kv.size());
+            assertEquals(Integer.valueOf(70), kv.get(7));
+            assertEquals(Integer.valueOf(80), kv.get(8));
+            assertNull(kv.get(9));
+            assertEquals(Integer.valueOf(49), kv.get(49));
+        }
+    }
+}
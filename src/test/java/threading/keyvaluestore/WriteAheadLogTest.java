@@ -0,0 +1,86 @@
+package threading.keyvaluestore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+    private static final int RECORD_BYTES = 13;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void givenTornLastRecord_whenReplaying_thenEarlierRecordsApplyAndTheTailIsCut() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve("wal.log");
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.EVERY_WRITE, 0)) {
+            for (int i = 0; i < 10; i++) wal.sync(wal.append(WriteAheadLog.OP_PUT, i, i * 10));
+            wal.sync(wal.append(WriteAheadLog.OP_REMOVE, 3, 0));
+        }
+        // a crash mid-write leaves only part of the last record on disk
+        long full = Files.size(file);
+        assertEquals(11L * RECORD_BYTES, full);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(full - 5);
+        }
+
+        Map<Integer, Integer> store = new HashMap<>();
+        List<Integer> removed = new ArrayList<>();
+        long replayed = WriteAheadLog.replay(file, store::put, removed::add);
+
+        assertEquals(10, replayed);
+        assertEquals(10, store.size());
+        assertEquals(Integer.valueOf(30), store.get(3)); // the torn remove never happened
+        assertTrue(removed.isEmpty());
+        assertEquals(10L * RECORD_BYTES, Files.size(file));
+    }
+
+    @Test
+    public void givenCorruptRecord_whenReplaying_thenReplayStopsBeforeIt() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve("wal.log");
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.EVERY_WRITE, 0)) {
+            for (int i = 0; i < 5; i++) wal.sync(wal.append(WriteAheadLog.OP_PUT, i, i));
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[2 * RECORD_BYTES + 6] ^= 0x40; // flip a bit in the third record's key
+        Files.write(file, bytes);
+
+        Map<Integer, Integer> store = new HashMap<>();
+        long replayed = WriteAheadLog.replay(file, store::put, store::remove);
+
+        assertEquals(2, replayed);
+        assertEquals(2L * RECORD_BYTES, Files.size(file));
+    }
+
+    @Test
+    public void givenReplayedLog_whenAppendingAgain_thenBothGenerationsReplay() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve("wal.log");
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.INTERVAL, 10)) {
+            wal.append(WriteAheadLog.OP_PUT, 1, 1);
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(Files.size(file) - 1);
+        }
+        WriteAheadLog.replay(file, (k, v) -> { }, k -> { });
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.FsyncPolicy.INTERVAL, 10)) {
+            wal.append(WriteAheadLog.OP_PUT, 2, 2);
+        }
+
+        Map<Integer, Integer> store = new HashMap<>();
+        assertEquals(1, WriteAheadLog.replay(file, store::put, store::remove));
+        assertEquals(Map.of(2, 2), store);
+    }
+}
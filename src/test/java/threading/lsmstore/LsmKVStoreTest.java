@@ -0,0 +1,94 @@
+package threading.lsmstore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LsmKVStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void givenFlushedAndCompactedTables_whenReopening_thenTheManifestRestoresEveryValue() throws Exception {
+        Path dir = tmp.newFolder("lsm").toPath();
+        try (LsmKVStore kv = new LsmKVStore(dir, 100, 2, null)) {
+            for (int i = 0; i < 1000; i++) kv.put(i, i);
+            for (int i = 0; i < 1000; i += 3) kv.put(i, -i); // newer versions in newer tables
+            for (int i = 0; i < 1000; i += 5) kv.remove(i);
+            awaitCompaction(dir);
+        }
+        Set<String> listed = new HashSet<>();
+        for (String line : Files.readAllLines(dir.resolve("MANIFEST"))) {
+            String[] fields = line.split(" ");
+            assertEquals("MANIFEST line is \"name tier\": " + line, 2, fields.length);
+            listed.add(fields[0]);
+        }
+        assertEquals(listed, tableFiles(dir));
+
+        try (LsmKVStore kv = new LsmKVStore(dir, 100, 2, null)) {
+            assertEquals(listed.size(), kv.tableCount());
+            for (int i = 0; i < 1000; i++) {
+                if (i % 5 == 0) assertNull("removed " + i, kv.get(i));
+                else if (i % 3 == 0) assertEquals(Integer.valueOf(-i), kv.get(i));
+                else assertEquals(Integer.valueOf(i), kv.get(i));
+            }
+            kv.put(5, 55);
+        }
+        try (LsmKVStore kv = new LsmKVStore(dir, 100, 2, null)) {
+            assertEquals(Integer.valueOf(55), kv.get(5));
+        }
+    }
+
+    @Test
+    public void givenTableNotInManifest_whenReopening_thenItIsDeletedAsCrashLeftover() throws Exception {
+        Path dir = tmp.newFolder("lsm").toPath();
+        try (LsmKVStore kv = new LsmKVStore(dir, 100, 4, null)) {
+            for (int i = 0; i < 150; i++) kv.put(i, i);
+        }
+        Path leftover = dir.resolve("sst-999999999999.sst");
+        Files.write(leftover, new byte[] {1, 2, 3});
+
+        try (LsmKVStore kv = new LsmKVStore(dir, 100, 4, null)) {
+            assertTrue(Files.notExists(leftover));
+            assertEquals(Integer.valueOf(149), kv.get(149));
+            kv.put(1000, 1);
+        }
+        try (LsmKVStore kv = new LsmKVStore(dir, 100, 4, null)) {
+            assertEquals(Integer.valueOf(1), kv.get(1000));
+        }
+    }
+
+    /** Compaction runs in the background; wait until the MANIFEST lists a merged table. */
+    private static void awaitCompaction(Path dir) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            Path manifest = dir.resolve("MANIFEST");
+            List<String> lines = Files.exists(manifest) ? Files.readAllLines(manifest) : List.of();
+            for (String line : lines) {
+                if (!line.endsWith(" 0")) return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("no compaction within 30s");
+    }
+
+    private static Set<String> tableFiles(Path dir) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "sst-*.sst")) {
+            for (Path f : files) names.add(f.getFileName().toString());
+        }
+        return names;
+    }
+}